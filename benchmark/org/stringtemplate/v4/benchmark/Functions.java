@@ -0,0 +1,82 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.benchmark;
+
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** List built-ins applied to a 1M-element list. Each template reduces the
+ *  result to a single value so we time the function, not the output.
+ */
+public class Functions {
+	public static final int N = 1000000;
+
+	protected final List<Integer> data = new ArrayList<Integer>(N);
+	protected final int[] ints = new int[N];
+
+	public Functions() {
+		for (int i = 0; i < N; i++) {
+			data.add(i);
+			ints[i] = i;
+		}
+	}
+
+	protected void render(String template, Object x, int reps) {
+		STGroup group = new STGroup();
+		group.defineTemplate("t", "x", template);
+		ST st = group.getInstanceOf("t");
+		st.add("x", x);
+
+		for (int i = 0; i < reps; i++) {
+			st.render();
+		}
+	}
+
+	public void timeLength(int reps) { render("<length(x)>", data, reps); }
+
+	public void timeFirst(int reps) { render("<first(x)>", data, reps); }
+
+	public void timeLast(int reps) { render("<last(x)>", data, reps); }
+
+	public void timeRest(int reps) { render("<length(rest(x))>", data, reps); }
+
+	public void timeTrunc(int reps) { render("<length(trunc(x))>", data, reps); }
+
+	public void timeStrip(int reps) { render("<length(strip(x))>", data, reps); }
+
+	public void timeReverse(int reps) { render("<first(reverse(x))>", data, reps); }
+
+	public void timeLastOfPrimitiveArray(int reps) { render("<last(x)>", ints, reps); }
+
+	public void timeRestOfPrimitiveArray(int reps) { render("<length(rest(x))>", ints, reps); }
+
+	public void timeReverseOfPrimitiveArray(int reps) { render("<first(reverse(x))>", ints, reps); }
+}
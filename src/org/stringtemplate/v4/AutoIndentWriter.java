@@ -83,6 +83,9 @@ public class AutoIndentWriter implements STWriter {
 
 	public int lineWidth = NO_WRAP;
 
+	/** Scratch space for {@link #write(long)}; big enough for any {@code long}. */
+	protected final char[] digits = new char[20];
+
 	public AutoIndentWriter(Writer out, String newline) {
 		this.out = out;
 		indents.add(null); // s oftart with no indent
@@ -160,6 +163,46 @@ public class AutoIndentWriter implements STWriter {
 		return n;
 	}
 
+	/**
+	 * Write the decimal digits of {@code value} without creating a
+	 * {@link String}. Digits never contain a newline so the only special case
+	 * is indenting when we're at the start of a line.
+	 */
+	public int write(long value) throws IOException {
+		int n = 0;
+		if ( atStartOfLine ) {
+			n += indent();
+			atStartOfLine = false;
+		}
+		int start = formatDigits(value, digits);
+		int len = digits.length - start;
+		out.write(digits, start, len);
+		charPosition += len;
+		charIndex += len;
+		return n + len;
+	}
+
+	/** Fill the end of {@code buf} with the digits of {@code value}; return
+	 *  index of the first char.
+	 */
+	protected static int formatDigits(long value, char[] buf) {
+		int p = buf.length;
+		if ( value==Long.MIN_VALUE ) {
+			String s = Long.toString(value);
+			p -= s.length();
+			s.getChars(0, s.length(), buf, p);
+			return p;
+		}
+		boolean negative = value<0;
+		if ( negative ) value = -value;
+		do {
+			buf[--p] = (char)('0' + (int)(value % 10));
+			value /= 10;
+		} while ( value!=0 );
+		if ( negative ) buf[--p] = '-';
+		return p;
+	}
+
 	@Override
     public int writeSeparator(String str) throws IOException {
 		return write(str);
@@ -37,7 +37,7 @@ import java.util.*;
  * assumes {@code "short"} format. A prefix of {@code "date:"} or
  * {@code "time:"} shows only those components of the time object.
  */
-public class DateRenderer implements AttributeRenderer {
+public class DateRenderer implements CompilableAttributeRenderer {
     public static final Map<String,Integer> formatToInt =
         new HashMap<String,Integer>() {
             {
@@ -75,4 +75,31 @@ public class DateRenderer implements AttributeRenderer {
         }
         return f.format(d);
     }
+
+	/** Build the {@link DateFormat} once; each use formats with a clone since
+	 *  {@link DateFormat} is not thread safe.
+	 */
+	@Override
+	public AttributeFormatter compileFormat(String formatString, Locale locale) {
+        if ( formatString==null ) formatString = "short";
+        Integer styleI = formatToInt.get(formatString);
+        final DateFormat prototype;
+        if ( styleI==null ) prototype = new SimpleDateFormat(formatString, locale);
+        else {
+            int style = styleI.intValue();
+            if ( formatString.startsWith("date:") ) prototype = DateFormat.getDateInstance(style, locale);
+            else if ( formatString.startsWith("time:") ) prototype = DateFormat.getTimeInstance(style, locale);
+            else prototype = DateFormat.getDateTimeInstance(style, style, locale);
+        }
+        return new AttributeFormatter() {
+			@Override
+            public String format(Object o) {
+                Date d;
+                if ( o instanceof Calendar ) d = ((Calendar)o).getTime();
+                else d = (Date)o;
+                DateFormat f = (DateFormat)prototype.clone();
+                return f.format(d);
+            }
+        };
+    }
 }
@@ -145,16 +145,20 @@ public class Interpreter {
 			return _exec(out, scope);
 		}
 		catch (Exception e) {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			pw.flush();
-			errMgr.runTimeError(this, scope, ErrorType.INTERNAL_ERROR,
-								"internal error: "+sw.toString());
+			internalError(scope, e);
 			return 0;
 		}
 	}
 
+	protected void internalError(InstanceScope scope, Exception e) {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		e.printStackTrace(pw);
+		pw.flush();
+		errMgr.runTimeError(this, scope, ErrorType.INTERNAL_ERROR,
+							"internal error: "+sw.toString());
+	}
+
 	protected int _exec(STWriter out, InstanceScope scope) {
 		final ST self = scope.st;
 		int start = out.index(); // track char we're about to write
@@ -168,6 +172,14 @@ public class Interpreter {
 		ST st;
 		Object[] options;
 		byte[] code = self.impl.instrs;        // which code block are we executing
+		int opndSize = self.impl.operandSize;  // and how wide its operands are
+		// fast paths create instances without the group's getInstanceOf
+		STGroup creator = self.groupThatCreatedThisInstance;
+		boolean link = !debug && !trace && !STGroup.trackCreationEvents &&
+					   !creator.overridesInstanceCreation();
+		int maxInlinedCodeSize = link ? creator.maxInlinedCodeSize : 0;
+		boolean inline = maxInlinedCodeSize>0;
+		int n1;
 		int ip = 0;
 		while ( ip < self.impl.codeSize ) {
 			if ( trace || debug ) trace(scope, ip);
@@ -179,11 +191,11 @@ public class Interpreter {
 				case Bytecode.INSTR_LOAD_STR :
 					// just testing...
 					load_str(self,ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					ip += opndSize;
 					break;
 				case Bytecode.INSTR_LOAD_ATTR :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
 					try {
 						o = getAttribute(scope, name);
@@ -196,15 +208,15 @@ public class Interpreter {
 					operands[++sp] = o;
 					break;
 				case Bytecode.INSTR_LOAD_LOCAL:
-					int valueIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
-					o = self.locals[valueIndex];
+					int valueIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
+					o = self.getLocal(valueIndex);
 					if ( o==ST.EMPTY_ATTR ) o = null;
 					operands[++sp] = o;
 					break;
 				case Bytecode.INSTR_LOAD_PROP :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					o = operands[sp--];
 					name = self.impl.strings[nameIndex];
 					operands[++sp] = getObjectProperty(out, scope, o, name);
@@ -215,11 +227,26 @@ public class Interpreter {
 					operands[sp] = getObjectProperty(out, scope, o, propName);
 					break;
 				case Bytecode.INSTR_NEW :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
-					nargs = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nargs = getOperand(code, ip, opndSize);
+					ip += opndSize;
+					if ( inline && ip<self.impl.codeSize && code[ip]==Bytecode.INSTR_WRITE ) {
+						// <t(args)> with t small enough to run right here?
+						CompiledST callee = lookupCallee(self, name);
+						if ( callee!=null && callee.isInlinable(nargs, maxInlinedCodeSize) &&
+							 argsAreScalars(nargs) )
+						{
+							n1 = writeInline(out, scope, callee, nargs);
+							sp -= nargs;
+							n += n1;
+							nwline += n1;
+							ip++; // we did the WRITE too
+							opcode = Bytecode.INSTR_WRITE;
+							break;
+						}
+					}
 					// look up in original hierarchy not enclosing template (variable group)
 					// see TestSubtemplates.testEvalSTFromAnotherGroup()
 					st = self.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, name);
@@ -229,8 +256,8 @@ public class Interpreter {
 					operands[++sp] = st;
 					break;
 				case Bytecode.INSTR_NEW_IND:
-					nargs = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nargs = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = (String)operands[sp-nargs];
 					st = self.groupThatCreatedThisInstance.getEmbeddedInstanceOf(this, scope, name);
 					storeArgs(scope, nargs, st);
@@ -239,9 +266,14 @@ public class Interpreter {
 					operands[++sp] = st;
 					break;
 				case Bytecode.INSTR_NEW_BOX_ARGS :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
+					if ( operands[sp] instanceof BoundArgs ) {
+						// args went straight into the instance; see INSTR_ARGS
+						operands[sp] = ((BoundArgs)operands[sp]).st;
+						break;
+					}
 					Map<String, Object> attrs = (ArgumentsMap)operands[sp--];
 					// look up in original hierarchy not enclosing template (variable group)
 					// see TestSubtemplates.testEvalSTFromAnotherGroup()
@@ -251,38 +283,42 @@ public class Interpreter {
 					operands[++sp] = st;
 					break;
 				case Bytecode.INSTR_SUPER_NEW :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
-					nargs = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nargs = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					super_new(scope, name, nargs);
 					break;
 				case Bytecode.INSTR_SUPER_NEW_BOX_ARGS :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
 					attrs = (ArgumentsMap)operands[sp--];
 					super_new(scope, name, attrs);
 					break;
 				case Bytecode.INSTR_STORE_OPTION:
-					int optionIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					int optionIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					o = operands[sp--];    // value to store
 					options = (Object[])operands[sp]; // get options
 					options[optionIndex] = o; // store value into options on stack
 					break;
 				case Bytecode.INSTR_STORE_ARG:
-					nameIndex = getShort(code, ip);
+					nameIndex = getOperand(code, ip, opndSize);
 					name = self.impl.strings[nameIndex];
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					ip += opndSize;
 					o = operands[sp--];
+					if ( operands[sp] instanceof BoundArgs ) {
+						((BoundArgs)operands[sp]).store(o);
+						break;
+					}
 					attrs = (ArgumentsMap)operands[sp];
 					attrs.put(name, o); // leave attrs on stack
 					break;
 				case Bytecode.INSTR_WRITE :
 					o = operands[sp--];
-					int n1 = writeObjectNoOptions(out, scope, o);
+					n1 = writeObjectNoOptions(out, scope, o);
 					n += n1;
 					nwline += n1;
 					break;
@@ -299,8 +335,8 @@ public class Interpreter {
 					map(scope,o,st);
 					break;
 				case Bytecode.INSTR_ROT_MAP :
-					int nmaps = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					int nmaps = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					List<ST> templates = new ArrayList<ST>();
 					for (int i=nmaps-1; i>=0; i--) templates.add((ST)operands[sp-i]);
 					sp -= nmaps;
@@ -309,19 +345,19 @@ public class Interpreter {
 					break;
 				case Bytecode.INSTR_ZIP_MAP:
 					st = (ST)operands[sp--];
-					nmaps = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nmaps = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					List<Object> exprs = new ObjectList();
 					for (int i=nmaps-1; i>=0; i--) exprs.add(operands[sp-i]);
 					sp -= nmaps;
 					operands[++sp] = zip_map(scope, exprs, st);
 					break;
 				case Bytecode.INSTR_BR :
-					ip = getShort(code, ip);
+					ip = getOperand(code, ip, opndSize);
 					break;
 				case Bytecode.INSTR_BRF :
-					addr = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					addr = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					o = operands[sp--]; // <if(expr)>...<endif>
 					if ( !testAttributeTrue(o) ) ip = addr; // jump
 					break;
@@ -329,12 +365,21 @@ public class Interpreter {
 					operands[++sp] = new Object[Compiler.NUM_OPTIONS];
 					break;
 				case Bytecode.INSTR_ARGS:
-					operands[++sp] = new ArgumentsMap();
+					o = link ? bindArgs(scope, ip-1) : null;
+					operands[++sp] = o!=null ? o : new ArgumentsMap();
 					break;
 				case Bytecode.INSTR_PASSTHRU :
-					nameIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					nameIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					name = self.impl.strings[nameIndex];
+					if ( operands[sp] instanceof BoundArgs ) {
+						BoundArgs bound = (BoundArgs)operands[sp];
+						if ( group.lookupTemplate(name)==bound.site.callee ) {
+							passthru(scope, bound);
+							break;
+						}
+						operands[sp] = bound.toArgumentsMap(); // back to the slow path
+					}
 					attrs = (ArgumentsMap)operands[sp];
 					passthru(scope, name, attrs);
 					break;
@@ -405,8 +450,8 @@ public class Interpreter {
 					operands[++sp] = testAttributeTrue(left) && testAttributeTrue(right);
 					break;
 				case Bytecode.INSTR_INDENT :
-					int strIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					int strIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					indent(out, scope, strIndex);
 					break;
 				case Bytecode.INSTR_DEDENT :
@@ -441,23 +486,20 @@ public class Interpreter {
 					operands[++sp] = false;
 					break;
 				case Bytecode.INSTR_WRITE_STR :
-					strIndex = getShort(code, ip);
-					ip += Bytecode.OPND_SIZE_IN_BYTES;
+					strIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
 					o = self.impl.strings[strIndex];
 					n1 = writeObjectNoOptions(out, scope, o);
 					n += n1;
 					nwline += n1;
 					break;
-				// TODO: generate this optimization
-//				case Bytecode.INSTR_WRITE_LOCAL:
-//					valueIndex = getShort(code, ip);
-//					ip += Bytecode.OPND_SIZE_IN_BYTES;
-//					o = self.locals[valueIndex];
-//					if ( o==ST.EMPTY_ATTR ) o = null;
-//					n1 = writeObjectNoOptions(out, self, o);
-//					n += n1;
-//					nwline += n1;
-//					break;
+				case Bytecode.INSTR_WRITE_LOCAL:
+					valueIndex = getOperand(code, ip, opndSize);
+					ip += opndSize;
+					n1 = writeLocal(out, scope, valueIndex);
+					n += n1;
+					nwline += n1;
+					break;
 				default :
 					errMgr.internalError(self, "invalid bytecode @ "+(ip-1)+": "+opcode, null);
 					self.impl.dump();
@@ -473,8 +515,7 @@ public class Interpreter {
 	}
 
 	void load_str(ST self, int ip) {
-		int strIndex = getShort(self.impl.instrs, ip);
-		ip += Bytecode.OPND_SIZE_IN_BYTES;
+		int strIndex = getOperand(self.impl.instrs, ip, self.impl.operandSize);
 		operands[++sp] = self.impl.strings[strIndex];
 	}
 
@@ -549,6 +590,52 @@ public class Interpreter {
 		}
 	}
 
+	/**
+	 * For the call with named arguments whose {@code args} instruction is at
+	 * {@code addr}, create the instance of the template it calls now, so
+	 * arguments can go straight into its locals. Return {@code null} if the
+	 * call can't be linked or would report errors; those take the
+	 * {@link ArgumentsMap} path.
+	 */
+	protected BoundArgs bindArgs(InstanceScope scope, int addr) {
+		final ST self = scope.st;
+		ArgsSite site = self.impl.getArgsSite(addr);
+		if ( site==null ) {
+			site = ArgsSite.scan(self.impl, addr);
+			self.impl.setArgsSite(addr, site);
+		}
+		if ( site.name==null ) return null;
+		CompiledST callee = lookupCallee(self, site.name);
+		if ( callee==null ) return null;
+		if ( site.callee!=callee ) { // first call, or it resolves elsewhere now
+			site = site.link(callee);
+			self.impl.setArgsSite(addr, site);
+		}
+		if ( site.slots==null ) return null;
+		return new BoundArgs(self.groupThatCreatedThisInstance.createStringTemplate(callee), site);
+	}
+
+	/** {@link #passthru(InstanceScope, String, Map)} for linked calls. */
+	protected void passthru(InstanceScope scope, BoundArgs bound) {
+		for (FormalArgument arg : bound.site.passThroughArgs) {
+			try {
+				Object o = getAttribute(scope, arg.name);
+				if ( o==ST.EMPTY_ATTR && !arg.hasDefaultValue() ) {
+					bound.st.locals[arg.index] = null;
+				}
+				else if ( o!=ST.EMPTY_ATTR ) {
+					bound.st.locals[arg.index] = o;
+				}
+			}
+			catch (STNoSuchAttributeException nsae) {
+				if ( !arg.hasDefaultValue() ) {
+					errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_ATTRIBUTE_PASS_THROUGH, arg.name);
+					bound.st.locals[arg.index] = null;
+				}
+			}
+		}
+	}
+
 	void storeArgs(InstanceScope scope, Map<String,Object> attrs, ST st) {
 		boolean noSuchAttributeReported = false;
 		if (attrs != null) {
@@ -659,6 +746,90 @@ public class Interpreter {
 		}
 	}
 
+	/** Find the template {@code <name(...)>} refers to from {@code self}, as
+	 *  {@link STGroup#getEmbeddedInstanceOf} would, without creating an instance.
+	 */
+	protected CompiledST lookupCallee(ST self, String name) {
+		if ( name.charAt(0)!='/' ) name = self.impl.prefix + name;
+		if ( name.charAt(0)!='/' ) name = "/" + name;
+		return self.groupThatCreatedThisInstance.lookupTemplate(name);
+	}
+
+	/** True if the top {@code nargs} operands are all missing or scalars. */
+	protected boolean argsAreScalars(int nargs) {
+		for (int i = sp-nargs+1; i <= sp; i++) {
+			if ( operands[i]!=null && !isScalar(operands[i]) ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write {@code <callee(args)>} by running {@code callee}'s code right
+	 * here, reading its arguments from the top {@code nargs} operands, rather
+	 * than creating an instance and a scope for it. The callee must be
+	 * {@link CompiledST#isInlinable inlinable}, so it only writes text and its
+	 * arguments; newlines, indentation and renderers behave as they would in
+	 * {@link #exec}.
+	 */
+	protected int writeInline(STWriter out, InstanceScope scope, CompiledST callee, int nargs) {
+		int firstArg = sp-nargs+1;
+		byte[] code = callee.instrs;
+		int opndSize = callee.operandSize;
+		int prevOpcode = 0;
+		int n = 0;
+		int ip = 0;
+		try {
+			while ( ip < callee.codeSize ) {
+				int instrIP = ip;
+				short opcode = code[ip++];
+				int n1 = 0;
+				Object o;
+				switch (opcode) {
+					case Bytecode.INSTR_WRITE_STR :
+						o = callee.strings[getOperand(code, ip, opndSize)];
+						ip += opndSize;
+						n1 = writePOJO(out, resolveRenderSite(callee, instrIP, o.getClass(), null), o, null, null);
+						break;
+					case Bytecode.INSTR_WRITE_LOCAL :
+						o = operands[firstArg+getOperand(code, ip, opndSize)];
+						ip += opndSize;
+						if ( o!=null ) {
+							n1 = writePOJO(out, resolveRenderSite(callee, instrIP, o.getClass(), null), o, null, null);
+						}
+						break;
+					case Bytecode.INSTR_INDENT :
+						out.pushIndentation(callee.strings[getOperand(code, ip, opndSize)]);
+						ip += opndSize;
+						break;
+					case Bytecode.INSTR_DEDENT :
+						out.popIndentation();
+						break;
+					case Bytecode.INSTR_NEWLINE :
+						if ( prevOpcode==Bytecode.INSTR_NEWLINE ||
+							 prevOpcode==Bytecode.INSTR_INDENT ||
+							 nwline>0 )
+						{
+							out.write(Misc.newline);
+						}
+						nwline = 0;
+						break;
+					default : // NOOP
+						ip += Bytecode.instructions[opcode].nopnds*opndSize;
+				}
+				n += n1;
+				nwline += n1;
+				prevOpcode = opcode;
+			}
+		}
+		catch (Exception e) {
+			// report it against an instance of callee, as exec would have
+			ST st = scope.st.groupThatCreatedThisInstance.createStringTemplateInternally(callee);
+			if ( e instanceof IOException ) errMgr.IOError(st, ErrorType.WRITE_IO_ERROR, e);
+			else internalError(new InstanceScope(scope, st), e);
+		}
+		return n;
+	}
+
 	protected void indent(STWriter out, InstanceScope scope, int strIndex) {
 		String indent = scope.st.impl.strings[strIndex];
 		if ( debug ) {
@@ -688,6 +859,33 @@ public class Interpreter {
 		return n;
 	}
 
+	/** Write out a formal argument or implicit {@code i}/{@code i0} of
+	 *  {@code scope}'s template; e.g., {@code <i>}. Iteration numbers go
+	 *  straight to the writer without being boxed.
+	 */
+	protected int writeLocal(STWriter out, InstanceScope scope, int index) {
+		final ST self = scope.st;
+		Object o = self.locals[index];
+		if ( !debug && (o==ST.ITERATION_NUMBER || o==ST.ITERATION_NUMBER_0) ) {
+			AutoIndentWriter numberWriter = getNumberWriter(out);
+			if ( numberWriter!=null &&
+				 resolveRenderSite(scope, Integer.class, null).renderer==null )
+			{
+				int v = o==ST.ITERATION_NUMBER ? self.iterationIndex+1 : self.iterationIndex;
+				try {
+					return numberWriter.write(v);
+				}
+				catch (IOException ioe) {
+					errMgr.IOError(self, ErrorType.WRITE_IO_ERROR, ioe, v);
+					return 0;
+				}
+			}
+		}
+		o = self.getLocal(index);
+		if ( o==ST.EMPTY_ATTR ) o = null;
+		return writeObjectNoOptions(out, scope, o);
+	}
+
 	/** Write out an expression result that uses expression options.
 	 *  E.g., {@code <names; separator=", ">}
 	 */
@@ -748,10 +946,22 @@ public class Interpreter {
 			n = exec(out, scope);
 		}
 		else {
-			o = convertAnythingIteratableToIterator(scope, o); // normalize
 			try {
-				if ( o instanceof Iterator) n = writeIterator(out, scope, o, options);
-				else n = writePOJO(out, scope, o, options);
+				if ( isScalar(o) ) n = writePOJO(out, scope, o, options);
+				else if ( o instanceof List && o instanceof RandomAccess ) {
+					n = writeList(out, scope, (List<?>)o, options);
+				}
+				else if ( o instanceof Object[] ) {
+					n = writeList(out, scope, Arrays.asList((Object[])o), options);
+				}
+				else if ( o.getClass().isArray() ) {
+					n = writeArray(out, scope, new ArrayIterator(o), options);
+				}
+				else {
+					o = convertAnythingIteratableToIterator(scope, o); // normalize
+					if ( o instanceof Iterator) n = writeIterator(out, scope, o, options);
+					else n = writePOJO(out, scope, o, options);
+				}
 			}
 			catch (IOException ioe) {
 				errMgr.IOError(scope.st, ErrorType.WRITE_IO_ERROR, ioe, o);
@@ -782,17 +992,84 @@ public class Interpreter {
 		return n;
 	}
 
+	/** Same as {@link #writeIterator} but walks a random access list by
+	 *  index instead of allocating an iterator.
+	 */
+	protected int writeList(STWriter out, InstanceScope scope, List<?> list, String[] options) throws IOException {
+		int n = 0;
+		String separator = null;
+		if ( options!=null ) separator = options[Option.SEPARATOR.ordinal()];
+		boolean seenAValue = false;
+		for (int i = 0, size = list.size(); i < size; i++) {
+			Object iterValue = list.get(i);
+			boolean needSeparator = seenAValue &&
+				separator!=null &&
+				(iterValue!=null ||
+					options[Option.NULL.ordinal()]!=null);
+			if ( needSeparator ) n += out.writeSeparator(separator);
+			int nw = writeObject(out, scope, iterValue, options);
+			if ( nw > 0 ) seenAValue = true;
+			n += nw;
+		}
+		return n;
+	}
+
+	/** Write the elements of a primitive array. Elements can't be null or
+	 *  templates, so they all share one renderer lookup; integral elements
+	 *  with no renderer skip boxing altogether.
+	 */
+	protected int writeArray(STWriter out, InstanceScope scope, ArrayIterator array, String[] options) throws IOException {
+		String separator = null;
+		String formatString = null;
+		String wrap = null;
+		if ( options!=null ) {
+			separator = options[Option.SEPARATOR.ordinal()];
+			formatString = options[Option.FORMAT.ordinal()];
+			wrap = options[Option.WRAP.ordinal()];
+		}
+		RenderSite site = resolveRenderSite(scope, array.getElementType(), formatString);
+		AutoIndentWriter numberWriter = null;
+		if ( site.renderer==null && array.isIntegral() ) numberWriter = getNumberWriter(out);
+		int n = 0;
+		boolean seenAValue = false;
+		for (int i = 0, size = array.size(); i < size; i++) {
+			if ( seenAValue && separator!=null ) n += out.writeSeparator(separator);
+			int nw = 0;
+			if ( wrap!=null ) nw = out.writeWrap(wrap);
+			if ( numberWriter!=null ) nw += numberWriter.write(array.getLong(i));
+			else if ( site.renderer==null ) nw += out.write(array.toString(i));
+			else nw += out.write(render(site, array.get(i), formatString));
+			if ( nw > 0 ) seenAValue = true;
+			n += nw;
+		}
+		return n;
+	}
+
 	protected int writePOJO(STWriter out, InstanceScope scope, Object o, String[] options) throws IOException {
 		String formatString = null;
-		if ( options!=null ) formatString = options[Option.FORMAT.ordinal()];
-		// ask the native group defining the surrounding template for the renderer
-		AttributeRenderer r = scope.st.impl.nativeGroup.getAttributeRenderer(o.getClass());
-		String v;
-		if ( r!=null ) v = r.toString(o, formatString, locale);
-		else v = o.toString();
+		String wrap = null;
+		if ( options!=null ) {
+			formatString = options[Option.FORMAT.ordinal()];
+			wrap = options[Option.WRAP.ordinal()];
+		}
+		RenderSite site = resolveRenderSite(scope, o.getClass(), formatString);
+		return writePOJO(out, site, o, formatString, wrap);
+	}
+
+	protected int writePOJO(STWriter out, RenderSite site, Object o, String formatString, String wrap) throws IOException {
+		if ( site.renderer==null && isIntegral(o) ) {
+			// unrendered ints and longs go straight into the writer
+			AutoIndentWriter numberWriter = getNumberWriter(out);
+			if ( numberWriter!=null ) {
+				int n = 0;
+				if ( wrap!=null ) n = out.writeWrap(wrap);
+				return n + numberWriter.write(((Number)o).longValue());
+			}
+		}
+		String v = render(site, o, formatString);
 		int n;
-		if ( options!=null && options[Option.WRAP.ordinal()]!=null ) {
-			n = out.write(v, options[Option.WRAP.ordinal()]);
+		if ( wrap!=null ) {
+			n = out.write(v, wrap);
 		}
 		else {
 			n = out.write(v);
@@ -800,14 +1077,80 @@ public class Interpreter {
 		return n;
 	}
 
+	/**
+	 * Convert {@code o} to text with the renderer registered in the native
+	 * group of the surrounding template. The renderer, and the formatter it
+	 * compiled from {@code formatString}, are cached at the current write
+	 * instruction and reused while type, format, locale, and the group's
+	 * renderers stay the same.
+	 */
+	protected String renderObject(InstanceScope scope, Object o, String formatString) {
+		return render(resolveRenderSite(scope, o.getClass(), formatString), o, formatString);
+	}
+
+	protected String render(RenderSite site, Object o, String formatString) {
+		if ( site.formatter!=null ) return site.formatter.format(o);
+		if ( site.renderer!=null ) return site.renderer.toString(o, formatString, locale);
+		return o.toString();
+	}
+
+	protected RenderSite resolveRenderSite(InstanceScope scope, Class<?> type, String formatString) {
+		return resolveRenderSite(scope.st.impl, scope.ip, type, formatString);
+	}
+
+	/** Renderer for the write instruction at {@code ip} in {@code impl}. */
+	protected RenderSite resolveRenderSite(CompiledST impl, int ip, Class<?> type, String formatString) {
+		// ask the native group defining the surrounding template for the renderer
+		STGroup g = impl.nativeGroup;
+		int version = g.getRenderersVersion();
+		RenderSite site = impl.getRenderSite(ip);
+		if ( site==null || !site.matches(g, version, type, formatString, locale) ) {
+			AttributeRenderer r = g.getAttributeRenderer(type);
+			AttributeFormatter f = null;
+			if ( r instanceof CompilableAttributeRenderer ) {
+				f = ((CompilableAttributeRenderer)r).compileFormat(formatString, locale);
+			}
+			site = new RenderSite(g, version, type, formatString, locale, r, f);
+			impl.setRenderSite(ip, site);
+		}
+		return site;
+	}
+
+	/** Values we know can't be iterated, so {@link #writeObject} needn't try. */
+	protected static boolean isScalar(Object o) {
+		Class<?> c = o.getClass();
+		return c==String.class || c==Integer.class || c==Long.class ||
+			   c==Short.class || c==Byte.class || c==Boolean.class ||
+			   c==Double.class || c==Float.class || c==Character.class;
+	}
+
+	protected static boolean isIntegral(Object o) {
+		Class<?> c = o.getClass();
+		return c==Integer.class || c==Long.class || c==Short.class || c==Byte.class;
+	}
+
+	/**
+	 * Return {@code out} if we can send numbers to it via
+	 * {@link AutoIndentWriter#write(long)}. Only the stock writers qualify;
+	 * a subclass may have overridden {@link STWriter#write(String)} to filter
+	 * text, so it has to see every string.
+	 */
+	protected static AutoIndentWriter getNumberWriter(STWriter out) {
+		Class<?> c = out.getClass();
+		if ( c==AutoIndentWriter.class || c==NoIndentWriter.class ) {
+			return (AutoIndentWriter)out;
+		}
+		return null;
+	}
+
 	protected int getExprStartChar(InstanceScope scope) {
-		Interval templateLocation = scope.st.impl.sourceMap[scope.ip];
+		Interval templateLocation = scope.st.impl.getSourceInterval(scope.ip);
 		if ( templateLocation!=null ) return templateLocation.a;
 		return -1;
 	}
 
 	protected int getExprStopChar(InstanceScope scope) {
-		Interval templateLocation = scope.st.impl.sourceMap[scope.ip];
+		Interval templateLocation = scope.st.impl.getSourceInterval(scope.ip);
 		if ( templateLocation!=null ) return templateLocation.b;
 		return -1;
 	}
@@ -825,6 +1168,11 @@ public class Interpreter {
 			operands[++sp] = null;
 			return;
 		}
+		List<?> list = asList(attr);
+		if ( list instanceof RandomAccess ) {
+			operands[++sp] = rot_map_list(scope, list, prototypes);
+			return;
+		}
 		attr = convertAnythingIteratableToIterator(scope, attr);
 		if ( attr instanceof Iterator ) {
 			List<ST> mapped = rot_map_iterator(scope, (Iterator) attr, prototypes);
@@ -835,10 +1183,7 @@ public class Interpreter {
 			ST st = group.createStringTemplateInternally(proto);
 			if ( st!=null ) {
 				setFirstArgument(scope, st, attr);
-				if ( st.impl.isAnonSubtemplate ) {
-					st.rawSetAttribute("i0", 0);
-					st.rawSetAttribute("i", 1);
-				}
+				if ( st.impl.isAnonSubtemplate ) st.setIterationIndex(0);
 				operands[++sp] = st;
 			}
 			else {
@@ -851,7 +1196,6 @@ public class Interpreter {
 		List<ST> mapped = new ArrayList<ST>();
 		Iterator<?> iter = attr;
 		int i0 = 0;
-		int i = 1;
 		int ti = 0;
 		while ( iter.hasNext() ) {
 			Object iterValue = iter.next();
@@ -861,13 +1205,30 @@ public class Interpreter {
 			ST proto = prototypes.get(templateIndex);
 			ST st = group.createStringTemplateInternally(proto);
 			setFirstArgument(scope, st, iterValue);
-			if ( st.impl.isAnonSubtemplate ) {
-				st.rawSetAttribute("i0", i0);
-				st.rawSetAttribute("i", i);
-			}
+			if ( st.impl.isAnonSubtemplate ) st.setIterationIndex(i0);
+			mapped.add(st);
+			i0++;
+		}
+		return mapped;
+	}
+
+	/** Same as {@link #rot_map_iterator} but walks a random access list by
+	 *  index instead of allocating an iterator.
+	 */
+	protected List<ST> rot_map_list(InstanceScope scope, List<?> attr, List<ST> prototypes) {
+		int size = attr.size();
+		List<ST> mapped = new ArrayList<ST>(size);
+		int nprototypes = prototypes.size();
+		int i0 = 0;
+		for (int i = 0; i < size; i++) {
+			Object iterValue = attr.get(i);
+			if ( iterValue == null ) { mapped.add(null); continue; }
+			ST proto = prototypes.get(i0 % nprototypes); // rotate through
+			ST st = group.createStringTemplateInternally(proto);
+			setFirstArgument(scope, st, iterValue);
+			if ( st.impl.isAnonSubtemplate ) st.setIterationIndex(i0);
 			mapped.add(st);
 			i0++;
-			i++;
 		}
 		return mapped;
 	}
@@ -881,10 +1242,14 @@ public class Interpreter {
 		if ( exprs==null || prototype==null || exprs.size()==0 ) {
 			return null; // do not apply if missing templates or empty values
 		}
-		// make everything iterable
+		// make everything iterable; random access lists and arrays are
+		// indexed instead
 		for (int i = 0; i < exprs.size(); i++) {
 			Object attr = exprs.get(i);
-			if ( attr!=null ) exprs.set(i, convertAnythingToIterator(scope, attr));
+			if ( attr==null ) continue;
+			List<?> list = asList(attr);
+			if ( list instanceof RandomAccess ) exprs.set(i, list);
+			else exprs.set(i, convertAnythingToIterator(scope, attr));
 		}
 
 		// ensure arguments line up
@@ -924,18 +1289,24 @@ public class Interpreter {
 			// get a value for each attribute in list; put into ST instance
 			int numEmpty = 0;
 			ST embedded = group.createStringTemplateInternally(prototype);
-			embedded.rawSetAttribute("i0", i);
-			embedded.rawSetAttribute("i", i+1);
+			embedded.setIterationIndex(i);
 			for (int a = 0; a < numExprs; a++) {
-				Iterator<?> it = (Iterator<?>) exprs.get(a);
-				if ( it!=null && it.hasNext() ) {
-					String argName = formalArgumentNames[a];
-					Object iteratedValue = it.next();
-					embedded.rawSetAttribute(argName, iteratedValue);
+				Object e = exprs.get(a);
+				if ( e instanceof Iterator ) {
+					Iterator<?> it = (Iterator<?>)e;
+					if ( it.hasNext() ) {
+						embedded.rawSetAttribute(formalArgumentNames[a], it.next());
+						continue;
+					}
 				}
-				else {
-					numEmpty++;
+				else if ( e!=null ) {
+					List<?> list = (List<?>)e;
+					if ( i < list.size() ) {
+						embedded.rawSetAttribute(formalArgumentNames[a], list.get(i));
+						continue;
+					}
 				}
+				numEmpty++;
 			}
 			if ( numEmpty==numExprs ) break;
 			results.add(embedded);
@@ -964,6 +1335,11 @@ public class Interpreter {
 	}
 
 	protected void addToList(InstanceScope scope, List<Object> list, Object o) {
+		List<?> elems = o!=null ? asList(o) : null;
+		if ( elems instanceof RandomAccess ) {
+			for (int i = 0, size = elems.size(); i < size; i++) list.add(elems.get(i));
+			return;
+		}
 		o = convertAnythingIteratableToIterator(scope, o);
 		if ( o instanceof Iterator ) {
 			// copy of elements into our temp list
@@ -984,6 +1360,8 @@ public class Interpreter {
 	 */
 	public Object first(InstanceScope scope, Object v) {
 		if ( v==null ) return null;
+		List<?> list = asList(v);
+		if ( list!=null ) return list.isEmpty() ? v : list.get(0);
 		Object r = v;
 		v = convertAnythingIteratableToIterator(scope, v);
 		if ( v instanceof Iterator ) {
@@ -1005,10 +1383,8 @@ public class Interpreter {
 	 */
 	public Object last(InstanceScope scope, Object v) {
 		if ( v==null ) return null;
-		if ( v instanceof List ) return ((List<?>)v).get(((List<?>)v).size()-1);
-		else if ( v.getClass().isArray() ) {
-			return Array.get(v, Array.getLength(v) - 1);
-		}
+		List<?> list = asList(v);
+		if ( list!=null ) return list.isEmpty() ? v : list.get(list.size()-1);
 		Object last = v;
 		v = convertAnythingIteratableToIterator(scope, v);
 		if ( v instanceof Iterator ) {
@@ -1022,12 +1398,13 @@ public class Interpreter {
 
 	/**
 	 * Return everything but the first attribute if multi-valued, or
-	 * {@code null} if single-valued.
+	 * {@code null} if single-valued. Lists and arrays yield a view, not a
+	 * copy, so the result sees later changes to {@code v}.
 	 */
 	public Object rest(InstanceScope scope, Object v) {
 		if ( v == null ) return null;
-		if ( v instanceof List ) { // optimize list case
-			List<?> elems = (List<?>)v;
+		List<?> elems = asList(v);
+		if ( elems!=null ) { // optimize list case
 			if ( elems.size()<=1 ) return null;
 			return elems.subList(1, elems.size());
 		}
@@ -1046,11 +1423,14 @@ public class Interpreter {
 		return null;  // rest of single-valued attribute is null
 	}
 
-	/** Return all but the last element. <code>trunc(<i>x</i>)==null</code> if <code><i>x</i></code> is single-valued. */
+	/** Return all but the last element. <code>trunc(<i>x</i>)==null</code> if <code><i>x</i></code> is single-valued.
+	 *  Lists and arrays yield a view, not a copy, so the result sees later
+	 *  changes to {@code v}.
+	 */
 	public Object trunc(InstanceScope scope, Object v) {
 		if ( v ==null ) return null;
-		if ( v instanceof List ) { // optimize list case
-			List<?> elems = (List<?>)v;
+		List<?> elems = asList(v);
+		if ( elems!=null ) { // optimize list case
 			if ( elems.size()<=1 ) return null;
 			return elems.subList(0, elems.size()-1);
 		}
@@ -1067,9 +1447,22 @@ public class Interpreter {
 		return null; // trunc(x)==null when x single-valued attribute
 	}
 
-	/** Return a new list without {@code null} values. */
+	/** Return a list without {@code null} values. A list or array that has
+	 *  no {@code null}s is returned as is rather than copied, so the result
+	 *  aliases {@code v} and sees later changes to it.
+	 */
 	public Object strip(InstanceScope scope, Object v) {
 		if ( v ==null ) return null;
+		List<?> elems = asList(v);
+		if ( elems!=null ) {
+			// asList only wraps primitive arrays in an ArrayView; no nulls there
+			if ( elems instanceof ArrayView || !hasNull(elems) ) return elems;
+			List<Object> a = new ArrayList<Object>(elems.size());
+			for (Object o : elems) {
+				if ( o!=null ) a.add(o);
+			}
+			return a;
+		}
 		v = convertAnythingIteratableToIterator(scope, v);
 		if ( v instanceof Iterator ) {
 			List<Object> a = new ArrayList<Object>();
@@ -1085,22 +1478,53 @@ public class Interpreter {
 
 	/**
 	 * Return a list with the same elements as {@code v} but in reverse order.
+	 * Random access lists and arrays yield a reversed view, not a copy, so
+	 * the result sees later changes to {@code v}.
 	 * <p>
 	 * Note that {@code null} values are <i>not</i> stripped out; use
 	 * {@code reverse(strip(v))} to do that.</p>
 	 */
 	public Object reverse(InstanceScope scope, Object v) {
 		if ( v==null ) return null;
+		List<?> elems = asList(v);
+		if ( elems instanceof RandomAccess ) return new ReversedList<Object>(elems);
 		v = convertAnythingIteratableToIterator(scope, v);
 		if ( v instanceof Iterator ) {
-			List<Object> a = new LinkedList<Object>();
+			List<Object> a = new ArrayList<Object>();
 			Iterator<?> it = (Iterator<?>)v;
-			while (it.hasNext()) a.add(0, it.next());
+			while (it.hasNext()) a.add(it.next());
+			Collections.reverse(a);
 			return a;
 		}
 		return v;
 	}
 
+	/** Like {@code elems.contains(null)} but safe for lists that reject
+	 *  {@code null} queries.
+	 */
+	protected static boolean hasNull(List<?> elems) {
+		if ( elems instanceof RandomAccess ) {
+			for (int i = 0, size = elems.size(); i < size; i++) {
+				if ( elems.get(i)==null ) return true;
+			}
+			return false;
+		}
+		for (Object o : elems) {
+			if ( o==null ) return true;
+		}
+		return false;
+	}
+
+	/** Return {@code v} as a {@link List} if it is one or is an array; else
+	 *  {@code null}. Arrays are wrapped, not copied.
+	 */
+	protected static List<?> asList(Object v) {
+		if ( v instanceof List ) return (List<?>)v;
+		if ( v instanceof Object[] ) return Arrays.asList((Object[])v);
+		if ( v.getClass().isArray() ) return new ArrayView(v);
+		return null;
+	}
+
 	/**
 	 * Return the length of a multi-valued attribute or 1 if it is a single
 	 * attribute. If {@code v} is {@code null} return 0.
@@ -1206,9 +1630,22 @@ public class Interpreter {
 		try {
 			final ST self = scope.st;
 			ModelAdaptor adap = self.groupThatCreatedThisInstance.getModelAdaptor(o.getClass());
-			return adap.getProperty(this, self, o, property, toString(out,scope,property));
+			String propertyName = toString(out,scope,property);
+			if ( adap instanceof ProbingModelAdaptor ) {
+				Object value = ((ProbingModelAdaptor)adap).tryGetProperty(this, self, o, property, propertyName);
+				if ( value!=ProbingModelAdaptor.NO_SUCH_PROPERTY ) return value;
+				// only build an exception for listeners that look at misses
+				if ( errMgr.ignoresNoSuchProperty() ) return null;
+				STNoSuchPropertyException e =
+					new STNoSuchPropertyException(null, null, o.getClass().getName()+"."+propertyName);
+				errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_PROPERTY,
+										  e, o.getClass().getName()+"."+property);
+				return null;
+			}
+			return adap.getProperty(this, self, o, property, propertyName);
 		}
 		catch (STNoSuchPropertyException e) {
+			if ( errMgr.ignoresNoSuchProperty() ) return null;
 			errMgr.runTimeError(this, scope, ErrorType.NO_SUCH_PROPERTY,
 									  e, o.getClass().getName()+"."+property);
 		}
@@ -1229,7 +1666,7 @@ public class Interpreter {
 			FormalArgument localArg = null;
 			if ( p.impl.formalArguments!=null ) localArg = p.impl.formalArguments.get(name);
 			if ( localArg!=null ) {
-				Object o = p.locals[localArg.index];
+				Object o = p.getLocal(localArg.index);
 				return o;
 			}
 			current = current.parent; // look up enclosing scope chain
@@ -1245,16 +1682,7 @@ public class Interpreter {
 	}
 
 	public Object getDictionary(STGroup g, String name) {
-		if ( g.isDictionary(name) ) {
-			return g.rawGetDictionary(name);
-		}
-		if ( g.imports!=null ) {
-			for (STGroup sup : g.imports) {
-				Object o = getDictionary(sup, name);
-				if ( o!=null ) return o;
-			}
-		}
-		return null;
+		return g.lookupDictionary(name);
 	}
 
 	/**
@@ -1273,7 +1701,11 @@ public class Interpreter {
 		}
 		for (FormalArgument arg : invokedST.impl.formalArguments.values()) {
 			// if no value for attribute and default arg, inject default arg into self
-			if ( invokedST.locals[arg.index]!=ST.EMPTY_ATTR || arg.defaultValueToken==null ) {
+			if ( invokedST.locals[arg.index]!=ST.EMPTY_ATTR || !arg.hasDefaultValue() ) {
+				continue;
+			}
+			if ( arg.fixed ) {
+				invokedST.locals[arg.index] = arg.defaultValue;
 				continue;
 			}
 			//System.out.println("setting def arg "+arg.name+" to "+arg.defaultValueToken);
@@ -1429,11 +1861,45 @@ public class Interpreter {
 		return b1<<(8*1) | b2;
 	}
 
+	/** Read an unsigned operand of {@code size} bytes; see {@link CompiledST#operandSize}. */
+	public static int getOperand(byte[] memory, int index, int size) {
+		if ( size==2 ) return (memory[index]&0xFF)<<8 | (memory[index+1]&0xFF);
+		if ( size==1 ) return memory[index]&0xFF;
+		return (memory[index]&0xFF)<<24 | (memory[index+1]&0xFF)<<16 |
+			   (memory[index+2]&0xFF)<<8 | (memory[index+3]&0xFF);
+	}
+
 	protected static class ObjectList extends ArrayList<Object> {
 	}
 
 	protected static class ArgumentsMap extends HashMap<String, Object> {
 	}
 
+	/** Named arguments of a linked call, stored by slot into the instance
+	 *  they're for as they are evaluated; see {@link ArgsSite}.
+	 */
+	protected static class BoundArgs {
+		final ST st;
+		final ArgsSite site;
+		/** How many {@code store_arg} instructions have run. */
+		int n;
+
+		BoundArgs(ST st, ArgsSite site) {
+			this.st = st;
+			this.site = site;
+		}
+
+		void store(Object o) {
+			st.locals[site.slots[n++]] = o;
+		}
+
+		/** The arguments stored so far, for the slow path. */
+		ArgumentsMap toArgumentsMap() {
+			ArgumentsMap attrs = new ArgumentsMap();
+			for (int i = 0; i < n; i++) attrs.put(site.argNames[i], st.locals[site.slots[i]]);
+			return attrs;
+		}
+	}
+
 }
 
@@ -41,4 +41,12 @@ public class NoIndentWriter extends AutoIndentWriter {
 	    out.write(str);
 		return str.length();
     }
+
+	@Override
+	public int write(long value) throws IOException {
+		int start = formatDigits(value, digits);
+		int len = digits.length - start;
+		out.write(digits, start, len);
+		return len;
+	}
 }
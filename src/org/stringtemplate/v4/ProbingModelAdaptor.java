@@ -0,0 +1,58 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4;
+
+import org.stringtemplate.v4.misc.STNoSuchPropertyException;
+
+/**
+ * A model adaptor that can report a missing property by returning
+ * {@link #NO_SUCH_PROPERTY} rather than throwing
+ * {@link STNoSuchPropertyException}. Templates that probe optional
+ * properties, as in {@code <if(x.foo)>}, then pay for a lookup, not an
+ * exception, on each miss.
+ * <p>
+ * The interpreter calls {@link #tryGetProperty} on adaptors that implement
+ * this interface and {@link ModelAdaptor#getProperty} on those that don't;
+ * {@code getProperty} should still throw for callers that use it
+ * directly.</p>
+ */
+public interface ProbingModelAdaptor extends ModelAdaptor {
+	/** Returned by {@link #tryGetProperty} when there is no such property. */
+	public static final Object NO_SUCH_PROPERTY = new Object() {
+		@Override
+		public String toString() { return "<no such property>"; }
+	};
+
+	/**
+	 * Same as {@link ModelAdaptor#getProperty} except that a property that
+	 * doesn't exist yields {@link #NO_SUCH_PROPERTY}. Failures accessing a
+	 * property that does exist may still throw.
+	 */
+	public Object tryGetProperty(Interpreter interp, ST self, Object o, Object property, String propertyName)
+		throws STNoSuchPropertyException;
+}
@@ -27,6 +27,7 @@
  */
 package org.stringtemplate.v4;
 
+import org.stringtemplate.v4.compiler.AdHocTemplateCache;
 import org.stringtemplate.v4.compiler.CompiledST;
 import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.debug.AddAttributeEvent;
@@ -53,6 +54,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /** An instance of the StringTemplate. It consists primarily of
  *  a {@linkplain ST#impl reference} to its implementation (shared among all
@@ -92,6 +94,13 @@ public class ST {
     public static final String UNKNOWN_NAME = "anonymous";
 	public static final Object EMPTY_ATTR = new Object();
 
+	/** Placeholders in {@link #locals} for the implicit {@code i} and
+	 *  {@code i0} attributes of an anonymous subtemplate. The actual number
+	 *  lives unboxed in {@link #iterationIndex}; see {@link #getLocal}.
+	 */
+	static final Object ITERATION_NUMBER = new Object();
+	static final Object ITERATION_NUMBER_0 = new Object();
+
 	/** When there are no formal args for template t and you map t across
 	 *  some values, t implicitly gets arg "it".  E.g., "<b>$it$</b>"
 	 */
@@ -107,6 +116,11 @@ public class ST {
 	 */
 	protected Object[] locals;
 
+	/** Zero-based iteration number ({@code i0}) when this instance was created
+	 *  by mapping an anonymous subtemplate across a multi-valued attribute.
+	 */
+	protected int iterationIndex;
+
     /** Created as instance of which group? We need this to initialize interpreter
      *  via render.  So, we create st and then it needs to know which
      *  group created it for sake of polymorphism:
@@ -152,11 +166,17 @@ public class ST {
 		}
 	}
 
+	/** Compiled code of templates made by {@link #ST(String)},
+	 *  {@link #ST(String, char, char)} and {@link #format}; {@code null} to
+	 *  compile every time.
+	 */
+	public static AdHocTemplateCache adHocTemplateCache = new AdHocTemplateCache();
+
 	/** Used to make templates inline in code for simple things like SQL or log records.
 	 *  No formal arguments are set and there is no enclosing instance.
 	 */
     public ST(String template) {
-        this(STGroup.defaultGroup, template);
+        this(STGroup.defaultGroup, template, true);
     }
 
     /** Create ST using non-default delimiters; each one of these will live
@@ -164,17 +184,27 @@ public class ST {
      *  alter {@link STGroup#defaultGroup}.
      */
     public ST(String template, char delimiterStartChar, char delimiterStopChar) {
-        this(new STGroup(delimiterStartChar, delimiterStopChar), template);
+        this(new STGroup(delimiterStartChar, delimiterStopChar), template, true);
     }
 
     public ST(STGroup group, String template) {
+		this(group, template, false);
+	}
+
+	/** If {@code adHoc}, the code may come from {@link #adHocTemplateCache}. */
+	protected ST(STGroup group, String template, boolean adHoc) {
 		this();
 		groupThatCreatedThisInstance = group;
-		impl = groupThatCreatedThisInstance.compile(group.getFileName(), null,
-													null, template, null);
+		AdHocTemplateCache cache = adHocTemplateCache;
+		if ( adHoc && cache!=null ) {
+			impl = cache.compile(group, template);
+		}
+		else {
+			impl = group.compile(group.getFileName(), null, null, template, null);
+			impl.defineImplicitlyDefinedTemplates(group);
+		}
 		impl.hasFormalArgs = false;
 		impl.name = UNKNOWN_NAME;
-		impl.defineImplicitlyDefinedTemplates(groupThatCreatedThisInstance);
     }
 
 	/** Clone a prototype template.
@@ -192,6 +222,7 @@ public class ST {
 			this.locals = new Object[impl.formalArguments.size()];
 		}
 		this.groupThatCreatedThisInstance = proto.groupThatCreatedThisInstance;
+		this.iterationIndex = proto.iterationIndex;
 	}
 
 	/** Inject an attribute (name/value pair). If there is already an attribute
@@ -200,7 +231,8 @@ public class ST {
 	 *  elements. This method will never alter a {@link List} that you inject.
 	 *  If you send in a {@link List} and then inject a single value element,
 	 *  {@code add} copies original list and adds the new value. The
-	 *  attribute name cannot be null or contain '.'.
+	 *  attribute name cannot be null or contain '.', and it can't name an
+	 *  argument fixed by {@link STGroup#specialize}.
 	 *  <p>
 	 *  Return {@code this} so we can chain:</p>
 	 *  <p>
@@ -225,6 +257,9 @@ public class ST {
 			if ( arg==null ) {
 				throw new IllegalArgumentException("no such attribute: "+name);
 			}
+			if ( arg.fixed ) {
+				throw new IllegalArgumentException("attribute is fixed: "+name);
+			}
 		}
 		else {
 			// define and make room in locals (a hack to make new ST("simple template") work.)
@@ -246,7 +281,7 @@ public class ST {
 			}
 		}
 
-		Object curvalue = locals[arg.index];
+		Object curvalue = getLocal(arg.index);
         if ( curvalue==EMPTY_ATTR ) { // new attribute
 			locals[arg.index] = value;
             return this;
@@ -343,15 +378,40 @@ public class ST {
 		if ( arg==null ) {
 			throw new IllegalArgumentException("no such attribute: "+name);
 		}
+		if ( arg.fixed ) {
+			throw new IllegalArgumentException("attribute is fixed: "+name);
+		}
 		locals[arg.index] = value;
 	}
 
+	/** Set {@code i} and {@code i0} of an anonymous subtemplate instance
+	 *  without boxing.
+	 */
+	protected void setIterationIndex(int i0) {
+		iterationIndex = i0;
+		if ( impl.formalArguments==null ) return;
+		FormalArgument i = impl.formalArguments.get("i");
+		FormalArgument i0Arg = impl.formalArguments.get("i0");
+		if ( i!=null ) locals[i.index] = ITERATION_NUMBER;
+		if ( i0Arg!=null ) locals[i0Arg.index] = ITERATION_NUMBER_0;
+	}
+
+	/** Return {@code locals[index]}, boxing the iteration number if that slot
+	 *  holds {@code i} or {@code i0}.
+	 */
+	protected Object getLocal(int index) {
+		Object o = locals[index];
+		if ( o==ITERATION_NUMBER ) return iterationIndex + 1;
+		if ( o==ITERATION_NUMBER_0 ) return iterationIndex;
+		return o;
+	}
+
 	/** Find an attribute in this template only. */
 	public Object getAttribute(String name) {
 		FormalArgument localArg = null;
 		if ( impl.formalArguments!=null ) localArg = impl.formalArguments.get(name);
 		if ( localArg!=null ) {
-			Object o = locals[localArg.index];
+			Object o = getLocal(localArg.index);
 			if ( o==ST.EMPTY_ATTR ) o = null;
 			return o;
 		}
@@ -362,7 +422,7 @@ public class ST {
 		if ( impl.formalArguments==null ) return null;
 		Map<String, Object> attributes = new HashMap<String, Object>();
 		for (FormalArgument a : impl.formalArguments.values()) {
-			Object o = locals[a.index];
+			Object o = getLocal(a.index);
 			if ( o==ST.EMPTY_ATTR ) o = null;
 			attributes.put(a.name, o);
 		}
@@ -559,6 +619,8 @@ public class ST {
         return name;
     }
 
+	protected static final Pattern FORMAT_ARG_REF = Pattern.compile("%([0-9]+)");
+
 	/**
 	 * <pre>
 	 * ST.format("name, phone | &lt;name&gt;:&lt;phone&gt;", n, p);
@@ -571,7 +633,9 @@ public class ST {
 	}
 
 	public static String format(int lineWidth, String template, Object... attributes) {
-		template = template.replaceAll("%([0-9]+)", "arg$1");
+		if ( template.indexOf('%')>=0 ) {
+			template = FORMAT_ARG_REF.matcher(template).replaceAll("arg$1");
+		}
 		ST st = new ST(template);
 		int i = 1;
 		for (Object a : attributes) {
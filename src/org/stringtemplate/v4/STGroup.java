@@ -36,6 +36,8 @@ import org.stringtemplate.v4.misc.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A directory or directory tree of {@code .st} template files and/or group files.
  *  Individual template files contain formal template definitions. In a sense,
@@ -59,18 +61,49 @@ public class STGroup {
     public String encoding = "UTF-8";
 
     /** Every group can import templates/dictionaries from other groups.
-     *  The list must be synchronized (see {@link STGroup#importTemplates}).
+     *  The list must be synchronized (see {@link STGroup#importTemplates})
+     *  until {@link #freeze} makes it read-only.
      */
-    protected final List<STGroup> imports = Collections.synchronizedList(new ArrayList<STGroup>());
+    protected List<STGroup> imports = Collections.synchronizedList(new ArrayList<STGroup>());
 
     protected final List<STGroup> importsToClearOnUnload = Collections.synchronizedList(new ArrayList<STGroup>());
 
+	/** What names resolve to through {@link #imports}, flattened across the
+	 *  whole import chain so repeated misses don't walk it again. Dropped
+	 *  once {@link #importsVersion} moves on.
+	 */
+	protected volatile ImportTable importTable;
+
+	/** Groups whose lookups go through this one, such as groups importing
+	 *  it; our definitions invalidate their {@link #importTable}s. Held
+	 *  weakly so a shared group doesn't keep its importers alive.
+	 */
+	protected final Set<STGroup> importers =
+		Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<STGroup, Boolean>()));
+
+	/** Bumped whenever {@link #imports} or a group reachable through it
+	 *  changes its templates or dictionaries.
+	 */
+	protected final AtomicInteger importsVersion = new AtomicInteger();
+
     public char delimiterStartChar = '<'; // Use <expr> by default
     public char delimiterStopChar = '>';
 
-    /** Maps template name to {@link CompiledST} object. This map is synchronized. */
+    /** Maps template name to {@link CompiledST} object. This map is concurrent;
+     *  {@link #templateOrder} remembers the order of definition.
+     */
     protected Map<String, CompiledST> templates =
-		Collections.synchronizedMap(new LinkedHashMap<String, CompiledST>());
+		new ConcurrentHashMap<String, CompiledST>();
+
+	/** Names in {@link #templates} in the order they were first put there. */
+	protected final List<String> templateOrder =
+		Collections.synchronizedList(new ArrayList<String>());
+
+	/** Loads in flight by template name so concurrent misses on one name
+	 *  share a single {@link #load(String)}; see {@link #lookupTemplate}.
+	 */
+	protected final ConcurrentMap<String, TemplateLoad> loading =
+		new ConcurrentHashMap<String, TemplateLoad>();
 
     /** Maps dictionary names to {@link Map} objects representing the dictionaries
      *  defined by the user like {@code typeInitMap ::= ["int":"0"]}.
@@ -99,6 +132,16 @@ public class STGroup {
      */
     protected Map<Class<?>, AttributeRenderer> renderers;
 
+	/** Bumped whenever {@link #renderers} changes so the interpreter can tell
+	 *  that renderers it cached per write instruction are stale.
+	 */
+	protected volatile int renderersVersion = 0;
+
+	/** Changes whenever {@link #getAttributeRenderer} may answer differently;
+	 *  {@link #renderersVersion} unless renderers come from elsewhere too.
+	 */
+	public int getRenderersVersion() { return renderersVersion; }
+
     /** A dictionary that allows people to register a model adaptor for
      *  a particular kind of object (subclass or implementation). Applies
 	 *  for any template evaluated relative to this group.
@@ -108,7 +151,7 @@ public class STGroup {
 	 * <p>
 	 *  The last one you register gets priority; do least to most specific.</p>
 	 */
-	protected final Map<Class<?>, ModelAdaptor> adaptors;
+	protected Map<Class<?>, ModelAdaptor> adaptors;
 	{
 		TypeRegistry<ModelAdaptor> registry = new TypeRegistry<ModelAdaptor>();
 		registry.put(Object.class, new ObjectModelAdaptor());
@@ -118,11 +161,23 @@ public class STGroup {
 		adaptors = Collections.synchronizedMap(registry);
 	}
 
+	/** Set by {@link #freeze}; nothing in the group changes after that. */
+	protected volatile boolean frozen = false;
+
+	/** Once frozen, what names not defined here resolve to through
+	 *  {@link #imports}.
+	 */
+	protected Map<String, CompiledST> importedTemplates;
+	protected Map<String, Map<String,Object>> importedDictionaries;
+
     /** Used to indicate that the template doesn't exist.
      *  Prevents duplicate group file loads and unnecessary file checks.
      */
     protected static final CompiledST NOT_FOUND_ST = new CompiledST();
 
+	/** Records a dictionary that no imported group defines. */
+	protected static final Map<String,Object> NOT_FOUND_DICT = new HashMap<String,Object>();
+
 	public static final ErrorManager DEFAULT_ERR_MGR = new ErrorManager();
 
 	/** Watch loading of groups and templates. */
@@ -141,6 +196,107 @@ public class STGroup {
 	 */
 	public boolean iterateAcrossValues = false;
 
+	/** If non-null, reuse compiled templates saved by earlier runs instead of
+	 *  compiling them again. Groups created for imports inherit it.
+	 */
+	public CompiledTemplateCache compiledTemplateCache;
+
+	/** If non-null, share compiled templates with other groups using the
+	 *  same cache that load identical sources. Groups created for imports
+	 *  inherit it.
+	 */
+	public SharedTemplateCache sharedTemplateCache;
+
+	/** If non-null, group files compile their template bodies in parallel
+	 *  on this executor once parsing is done, and {@link STGroupDir#load()}
+	 *  compiles the whole directory up front. Definitions still happen, and
+	 *  errors are still reported, in file order on the loading thread.
+	 *  Groups created for imports inherit it.
+	 */
+	public ExecutorService compileExecutor;
+
+	/** Production mode: once a template is defined, drop its AST, token
+	 *  stream and source map objects; see {@link CompiledST#discardDebugInfo}.
+	 *  {@link STViz} can't show such templates.
+	 */
+	public boolean discardDebugInfo = false;
+
+	/** Re-encode each template as it is defined with one-byte operands
+	 *  where they fit; see {@link CompiledST#setOperandSize}.
+	 */
+	public boolean compactBytecode = false;
+
+	/** Fold conditions on literals, drop unreachable code and join literal
+	 *  text as each template is defined; see {@link ConstantFolder}. A
+	 *  renderer for strings then sees joined text as one string.
+	 */
+	public boolean foldConstants = false;
+
+	/** Calls to templates whose code is at most this many bytes and only
+	 *  writes text and arguments, as in {@code <row(x)>}, run in place
+	 *  without creating an instance; see {@link CompiledST#isInlinable}.
+	 *  Zero turns this off. Groups created for imports inherit it.
+	 */
+	public int maxInlinedCodeSize = 64;
+
+	/** Whether this group's class overrides how instances are created;
+	 *  0 until {@link #overridesInstanceCreation} looks, then 1 or -1.
+	 */
+	protected volatile byte instanceCreationOverridden = 0;
+
+	/** Definitions parsed but not yet compiled while {@link #compileExecutor}
+	 *  is in use; set only on the loading thread during a load, so loads on
+	 *  other threads compile as usual.
+	 */
+	protected final ThreadLocal<List<PendingDefinition>> pendingDefinitions =
+		new ThreadLocal<List<PendingDefinition>>();
+
+	/** Group files only record each template as they are parsed and compile
+	 *  it the first time it is looked up, along with any regions that
+	 *  override it. Errors in a template are reported then, not at load.
+	 *  Groups created for imports inherit it.
+	 */
+	public boolean compileLazily = false;
+
+	/** Templates parsed but not compiled yet when {@link #compileLazily}
+	 *  is set, by name. Guarded by {@code this}.
+	 */
+	protected final Map<String, PendingDefinition> lazyDefinitions =
+		new LinkedHashMap<String, PendingDefinition>();
+
+	/** Uncompiled {@code @t.r()} definitions by enclosing template name,
+	 *  defined right after {@code t}. Guarded by {@code this}.
+	 */
+	protected final Map<String, List<PendingDefinition>> lazyRegions =
+		new LinkedHashMap<String, List<PendingDefinition>>();
+
+	/** Set while {@link #defineOnFirstUse} runs so lookups it makes fall
+	 *  through instead of recursing.
+	 */
+	protected boolean definingOnFirstUse = false;
+
+	/** Remember which file each template came from so that
+	 *  {@link #reloadChangedFiles} can recompile just the files that changed.
+	 *  Set before the group loads anything; {@link #startWatching} sets it.
+	 *  Files are compiled whole as they load, overriding
+	 *  {@link #compileLazily}. Groups created for imports inherit it.
+	 */
+	public boolean hotReload = false;
+
+	/** Definitions made by a file being (re)loaded on this thread, held
+	 *  back until the whole file is compiled; see {@link #loadStaged}.
+	 */
+	protected final ThreadLocal<FileDefinitions> staging =
+		new ThreadLocal<FileDefinitions>();
+
+	/** Whether loads may be staged through {@link #loadStaged}; otherwise
+	 *  definitions skip the {@link #staging} check.
+	 */
+	protected boolean tracksFiles() { return hotReload; }
+
+	/** Polls {@link #reloadChangedFiles} while watching. */
+	protected Timer watcher;
+
 	public static STGroup defaultGroup = new STGroup();
 
 	/** The {@link ErrorManager} for entire group; all compilations and executions.
@@ -169,6 +325,72 @@ public class STGroup {
         return null;
     }
 
+	/**
+	 * Return a copy of template {@code name} with the arguments in
+	 * {@code constants} fixed, for attributes that never change such as a
+	 * site name or feature flags. Instances get those values without being
+	 * given them. Where a value is a string, a boolean or {@code null}, the
+	 * template's own references to it become literals, and
+	 * {@link ConstantFolder} then drops the branches they decide and joins
+	 * the text, so rendering only does the dynamic parts. Subtemplates still
+	 * see the values as ordinary attributes. Setting a fixed argument on an
+	 * instance throws {@link IllegalArgumentException}.
+	 * <p>
+	 * The copy is not defined in this group. Render it with
+	 * {@code createStringTemplate(specialize(...))}.</p>
+	 */
+	public CompiledST specialize(String name, Map<String, ?> constants) {
+		if ( name.charAt(0)!='/' ) name = "/"+name;
+		CompiledST code = lookupTemplate(name);
+		if ( code==null ) throw new IllegalArgumentException("no such template: "+name);
+		CompiledST spec = code.share(code.nativeGroup);
+		spec.prototype = null;
+		for (Map.Entry<String, ?> e : constants.entrySet()) {
+			FormalArgument arg = spec.formalArguments!=null ? spec.formalArguments.get(e.getKey()) : null;
+			if ( arg==null ) throw new IllegalArgumentException("no such attribute: "+e.getKey());
+			Object v = e.getValue();
+			FormalArgument fixed = new FormalArgument(arg.name);
+			fixed.index = arg.index;
+			fixed.defaultValue = v;
+			fixed.fixed = true;
+			if ( !arg.hasDefaultValue() ) spec.numberOfArgsWithDefaultValues++;
+			spec.formalArguments.put(arg.name, fixed);
+		}
+		ConstantFolder.fold(spec, constants);
+		if ( compactBytecode ) spec.setOperandSize(spec.getSmallestOperandSize(1));
+		return spec;
+	}
+
+	/** True if a subclass overrides {@link #getInstanceOf},
+	 *  {@link #getEmbeddedInstanceOf} or {@link #createStringTemplate}; the
+	 *  interpreter then creates every instance through them instead of
+	 *  running small templates in place or binding arguments ahead.
+	 */
+	protected boolean overridesInstanceCreation() {
+		if ( instanceCreationOverridden==0 ) {
+			Class<?> c = getClass();
+			boolean overridden =
+				overrides(c, "getInstanceOf", String.class) ||
+				overrides(c, "getEmbeddedInstanceOf", Interpreter.class, InstanceScope.class, String.class) ||
+				overrides(c, "createStringTemplate", CompiledST.class);
+			instanceCreationOverridden = (byte)(overridden ? 1 : -1);
+		}
+		return instanceCreationOverridden>0;
+	}
+
+	protected static boolean overrides(Class<?> c, String name, Class<?>... types) {
+		for (; c!=STGroup.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod(name, types);
+				return true;
+			}
+			catch (NoSuchMethodException nsme) {
+				// try the superclass
+			}
+		}
+		return false;
+	}
+
     protected ST getEmbeddedInstanceOf(Interpreter interp,
 									   InstanceScope scope,
 									   String name)
@@ -220,6 +442,10 @@ public class STGroup {
 	/** Look up a fully-qualified name. */
     public CompiledST lookupTemplate(String name) {
 		if ( name.charAt(0)!='/' ) name = "/"+name;
+		if ( frozen ) {
+			CompiledST code = templates.get(name);
+			return code!=null ? code : importedTemplates.get(name);
+		}
 		if ( verbose ) System.out.println(getName()+".lookupTemplate("+name+")");
         CompiledST code = rawGetTemplate(name);
         if ( code==NOT_FOUND_ST ) {
@@ -227,16 +453,75 @@ public class STGroup {
 			return null;
 		}
         // try to load from disk and look up again
-        if ( code==null ) code = load(name);
-        if ( code==null ) code = lookupImportedTemplate(name);
-        if ( code==null ) {
-			if ( verbose ) System.out.println(name+" recorded not found");
-            templates.put(name, NOT_FOUND_ST);
-        }
+        if ( code==null ) code = loadOnce(name);
 		if ( verbose ) if ( code!=null ) System.out.println(getName()+".lookupTemplate("+name+") found");
         return code;
     }
 
+	/** Load {@code name} from disk or imports, letting one thread do the work
+	 *  while others missing on the same name wait for its result.
+	 */
+	protected CompiledST loadOnce(final String name) {
+		TemplateLoad f = loading.get(name);
+		if ( f!=null && f.owner==Thread.currentThread() ) {
+			return loadOrImport(name); // reentrant lookup; don't wait on ourselves
+		}
+		if ( f==null ) {
+			TemplateLoad mine = new TemplateLoad(new Callable<CompiledST>() {
+				@Override
+				public CompiledST call() {
+					CompiledST code = rawGetTemplate(name); // maybe done just before us
+					if ( code==null ) code = loadOrImport(name);
+					return code==NOT_FOUND_ST ? null : code;
+				}
+			});
+			f = loading.putIfAbsent(name, mine);
+			if ( f==null ) {
+				f = mine;
+				try {
+					mine.run();
+				}
+				finally {
+					loading.remove(name, mine);
+				}
+			}
+		}
+		try {
+			return f.get();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return loadOrImport(name);
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+			if ( cause instanceof Error ) throw (Error)cause;
+			throw new STException("can't load "+name, (Exception)cause);
+		}
+	}
+
+	protected CompiledST loadOrImport(String name) {
+		CompiledST code = load(name);
+		if ( code==null ) code = lookupImportedTemplate(name);
+		if ( code==null ) {
+			if ( verbose ) System.out.println(name+" recorded not found");
+			putTemplate(name, NOT_FOUND_ST);
+		}
+		return code;
+	}
+
+	/** A {@link #load(String)} in flight; remembers who runs it. */
+	protected static class TemplateLoad extends FutureTask<CompiledST> {
+		final Thread owner = Thread.currentThread();
+		TemplateLoad(Callable<CompiledST> load) { super(load); }
+	}
+
+	protected void putTemplate(String name, CompiledST code) {
+		checkNotFrozen();
+		if ( templates.put(name, code)==null ) templateOrder.add(name);
+	}
+
 	/**
 	 * Unload all templates, dictionaries and import relationships, but leave
 	 * renderers and adaptors. This essentially forces the next call to
@@ -245,15 +530,24 @@ public class STGroup {
 	 * {@link #importsToClearOnUnload} from {@link #imports}.
 	 */
 	public synchronized void unload() {
+		checkNotFrozen();
 		templates.clear();
+		templateOrder.clear();
+		lazyDefinitions.clear();
+		lazyRegions.clear();
 		dictionaries.clear();
 		for (STGroup imp : imports) {
-			imp.unload();
+			if ( !imp.frozen ) imp.unload();
 		}
-		for (STGroup imp : importsToClearOnUnload) {
-			imports.remove(imp);
+		if ( !importsToClearOnUnload.isEmpty() ) {
+			for (STGroup imp : importsToClearOnUnload) {
+				imports.remove(imp);
+				imp.importers.remove(this);
+			}
+			importsToClearOnUnload.clear();
+			importsVersion.incrementAndGet();
 		}
-		importsToClearOnUnload.clear();
+		importsChanged();
 	}
 
     /** Load st from disk if directory or load whole group file if .stg file (then
@@ -264,9 +558,116 @@ public class STGroup {
     /** Force a load if it makes sense for the group. */
     public void load() { }
 
+	/** Recompile the templates of any file that changed since it was
+	 *  loaded, here and in imported groups, and swap them in without
+	 *  touching anything else. Needs {@link #hotReload}. Returns how many
+	 *  files were reloaded.
+	 *  <p>
+	 *  This holds the group's lock while it recompiles, so {@link #unload}
+	 *  and {@link STGroupFile#load()} wait until it's done. Rendering
+	 *  doesn't; it keeps seeing the old templates until they're swapped.</p>
+	 */
+	public synchronized int reloadChangedFiles() {
+		if ( frozen ) return 0;
+		int n = 0;
+		for (STGroup g : imports.toArray(new STGroup[0])) {
+			n += g.reloadChangedFiles();
+		}
+		return n;
+	}
+
+	/** Call {@link #reloadChangedFiles} every {@code periodMillis} on a
+	 *  daemon thread until {@link #stopWatching}. Call before the group
+	 *  loads anything so every file is tracked.
+	 */
+	public synchronized void startWatching(long periodMillis) {
+		checkNotFrozen();
+		hotReload = true;
+		if ( watcher!=null ) return;
+		final Timer timer = new Timer(getName()+" watcher", true);
+		watcher = timer;
+		watcher.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					synchronized (STGroup.this) {
+						// a run already under way when stopWatching got the lock
+						if ( watcher!=timer ) return;
+						reloadChangedFiles();
+					}
+				}
+				catch (RuntimeException e) {
+					errMgr.internalError(null, "can't reload "+getName(), e);
+				}
+			}
+		}, periodMillis, periodMillis);
+	}
+
+	/** Stop the watcher; no reload starts after this returns. */
+	public synchronized void stopWatching() {
+		if ( watcher==null ) return;
+		watcher.cancel();
+		watcher = null;
+	}
+
+	/** Run {@code load}, which (re)reads one file, holding back what it
+	 *  defines until it's done. Then replace each of those templates and
+	 *  dictionaries in one step and drop whatever {@code old}, what the file
+	 *  defined before, has that the file no longer defines.
+	 */
+	protected FileDefinitions loadStaged(Runnable load, FileDefinitions old) {
+		FileDefinitions staged = new FileDefinitions();
+		FileDefinitions outer = staging.get(); // loads can nest
+		staging.set(staged);
+		try {
+			load.run();
+		}
+		finally {
+			if ( outer!=null ) staging.set(outer);
+			else staging.remove();
+		}
+		for (Map.Entry<String, CompiledST> e : staged.templates.entrySet()) {
+			putTemplate(e.getKey(), e.getValue());
+		}
+		dictionaries.putAll(staged.dictionaries);
+		if ( old!=null ) {
+			for (String name : old.templates.keySet()) {
+				if ( !staged.templates.containsKey(name) ) undefineTemplate(name);
+			}
+			for (String name : old.dictionaries.keySet()) {
+				if ( !staged.dictionaries.containsKey(name) ) dictionaries.remove(name);
+			}
+		}
+		importsChanged(); // drop any import tables holding old code
+		return staged;
+	}
+
+	/** What one template or group file defines. */
+	protected static class FileDefinitions {
+		final Map<String, CompiledST> templates = new LinkedHashMap<String, CompiledST>();
+		final Map<String, Map<String,Object>> dictionaries = new HashMap<String, Map<String,Object>>();
+	}
+
+	/** Forget templates recorded as not found so new files are seen. */
+	protected void forgetMissingTemplates() {
+		for (String name : templates.keySet()) {
+			if ( templates.get(name)==NOT_FOUND_ST ) undefineTemplate(name);
+		}
+	}
+
     protected CompiledST lookupImportedTemplate(String name) {
+		if ( frozen ) return importedTemplates.get(name);
         if ( imports.size()==0 ) return null;
-        for (STGroup g : imports) {
+		ImportTable table = getImportTable();
+		CompiledST code = table.templates.get(name);
+		if ( code!=null ) return code==NOT_FOUND_ST ? null : code;
+		code = resolveImportedTemplate(name);
+		table.templates.put(name, code!=null ? code : NOT_FOUND_ST);
+		return code;
+	}
+
+	protected CompiledST resolveImportedTemplate(String name) {
+        for (STGroup g : imports.toArray(new STGroup[0])) {
 			if ( verbose ) System.out.println("checking "+g.getName()+" for imported "+name);
             CompiledST code = g.lookupTemplate(name);
 			if ( code!=null ) {
@@ -278,8 +679,88 @@ public class STGroup {
         return null;
     }
 
-	public CompiledST rawGetTemplate(String name) { return templates.get(name); }
-	public Map<String,Object> rawGetDictionary(String name) { return dictionaries.get(name); }
+	/** Find dictionary {@code name} here or, failing that, in the first
+	 *  imported group (searched depth first) that defines it.
+	 */
+	public Map<String,Object> lookupDictionary(String name) {
+		if ( frozen ) {
+			Map<String,Object> dict = dictionaries.get(name);
+			return dict!=null ? dict : importedDictionaries.get(name);
+		}
+		if ( isDictionary(name) ) return rawGetDictionary(name);
+		if ( imports.size()==0 ) return null;
+		ImportTable table = getImportTable();
+		Map<String,Object> dict = table.dictionaries.get(name);
+		if ( dict!=null ) return dict==NOT_FOUND_DICT ? null : dict;
+		for (STGroup g : imports.toArray(new STGroup[0])) {
+			dict = g.lookupDictionary(name);
+			if ( dict!=null ) break;
+		}
+		table.dictionaries.put(name, dict!=null ? dict : NOT_FOUND_DICT);
+		return dict;
+	}
+
+	protected ImportTable getImportTable() {
+		int version = importsVersion.get();
+		ImportTable table = importTable;
+		if ( table==null || table.version!=version ) {
+			table = new ImportTable(version);
+			importTable = table;
+		}
+		return table;
+	}
+
+	/** Note a change that could alter how an importing group resolves
+	 *  names; every group that reaches this one through its imports drops
+	 *  its {@link #importTable}.
+	 */
+	protected void importsChanged() {
+		if ( importers.isEmpty() ) return;
+		notifyImporters(new HashSet<STGroup>());
+	}
+
+	/** Bump the {@link #importsVersion} of each importer not yet in
+	 *  {@code seen}, then of theirs; imports may form a cycle.
+	 */
+	protected void notifyImporters(Set<STGroup> seen) {
+		STGroup[] groups;
+		synchronized (importers) {
+			groups = importers.toArray(new STGroup[0]);
+		}
+		for (STGroup g : groups) {
+			if ( g!=null && seen.add(g) ) {
+				g.importsVersion.incrementAndGet();
+				g.notifyImporters(seen);
+			}
+		}
+	}
+
+	/** Resolutions through {@link #imports} as of one {@link #importsVersion};
+	 *  misses are recorded too.
+	 */
+	protected static class ImportTable {
+		final int version;
+		final ConcurrentMap<String, CompiledST> templates =
+			new ConcurrentHashMap<String, CompiledST>();
+		final ConcurrentMap<String, Map<String,Object>> dictionaries =
+			new ConcurrentHashMap<String, Map<String,Object>>();
+		ImportTable(int version) { this.version = version; }
+	}
+
+	public CompiledST rawGetTemplate(String name) {
+		if ( tracksFiles() ) {
+			FileDefinitions staged = staging.get();
+			if ( staged!=null && staged.templates.containsKey(name) ) return staged.templates.get(name);
+		}
+		CompiledST code = templates.get(name);
+		if ( code==null && compileLazily ) code = defineOnFirstUse(name);
+		return code;
+	}
+	public Map<String,Object> rawGetDictionary(String name) {
+		FileDefinitions staged = tracksFiles() ? staging.get() : null;
+		if ( staged!=null ) return staged.dictionaries.get(name);
+		return dictionaries.get(name);
+	}
 	public boolean isDictionary(String name) { return dictionaries.get(name)!=null; }
 
 	/** for testing */
@@ -328,16 +809,24 @@ public class STGroup {
         template = Misc.trimOneTrailingNewline(template);
 		// compile, passing in templateName as enclosing name for any embedded regions
         CompiledST code = compile(getFileName(), fullyQualifiedTemplateName, args, template, templateToken);
+        return defineCompiledTemplate(fullyQualifiedTemplateName, nameT, code);
+    }
+
+	protected CompiledST defineCompiledTemplate(String fullyQualifiedTemplateName,
+												Token nameT,
+												CompiledST code)
+	{
         code.name = fullyQualifiedTemplateName;
         rawDefineTemplate(fullyQualifiedTemplateName, code, nameT);
 		code.defineArgDefaultValueTemplates(this);
         code.defineImplicitlyDefinedTemplates(this); // define any anonymous subtemplates
 
         return code;
-    }
+	}
 
     /** Make name and alias for target.  Replace any previous definition of name. */
     public CompiledST defineTemplateAlias(Token aliasT, Token targetT) {
+        definePendingTemplates(); // target may still be waiting to compile
         String alias = aliasT.getText();
         String target = targetT.getText();
         CompiledST targetCode = rawGetTemplate("/"+target);
@@ -358,6 +847,15 @@ public class STGroup {
 		template = Misc.trimOneStartingNewline(template);
 		template = Misc.trimOneTrailingNewline(template);
         CompiledST code = compile(getFileName(), enclosingTemplateName, null, template, templateToken);
+        return defineCompiledRegion(enclosingTemplateName, regionT, templateToken, code);
+    }
+
+	protected CompiledST defineCompiledRegion(String enclosingTemplateName,
+											  Token regionT,
+											  Token templateToken,
+											  CompiledST code)
+	{
+        String name = regionT.getText();
         String mangled = getMangledRegionName(enclosingTemplateName, name);
 
         if ( lookupTemplate(mangled)==null ) {
@@ -385,6 +883,27 @@ public class STGroup {
         Token nameToken,
         List<FormalArgument> args)
     {
+		boolean lazy = compileLazily && !(tracksFiles() && staging.get()!=null);
+		List<PendingDefinition> pending = pendingDefinitions.get();
+		if ( pending!=null || lazy ) {
+			if ( regionSurroundingTemplateName==null ) {
+				if ( fullyQualifiedTemplateName==null || fullyQualifiedTemplateName.length()==0 ) {
+					throw new IllegalArgumentException("empty template name");
+				}
+				if ( fullyQualifiedTemplateName.indexOf('.')>=0 ) {
+					throw new IllegalArgumentException("cannot have '.' in template names");
+				}
+			}
+			template = Misc.trimOneStartingNewline(template);
+			template = Misc.trimOneTrailingNewline(template);
+			PendingDefinition d = new PendingDefinition(fullyQualifiedTemplateName,
+														regionSurroundingTemplateName,
+														templateToken, template,
+														nameToken, args);
+			if ( lazy ) defineOnFirstUse(d);
+			else pending.add(d);
+			return;
+		}
         try {
             if ( regionSurroundingTemplateName!=null ) {
                 defineRegion(regionSurroundingTemplateName, nameToken, template, templateToken);
@@ -400,7 +919,9 @@ public class STGroup {
 	}
 
 	public void rawDefineTemplate(String name, CompiledST code, Token defT) {
-		CompiledST prev = rawGetTemplate(name);
+		checkNotFrozen();
+		FileDefinitions staged = tracksFiles() ? staging.get() : null;
+		CompiledST prev = staged!=null ? staged.templates.get(name) : rawGetTemplate(name);
 		if ( prev!=null ) {
 			if ( !prev.isRegion ) {
 				errMgr.compileTimeError(ErrorType.TEMPLATE_REDEFINITION, null, defT);
@@ -429,11 +950,224 @@ public class STGroup {
 		}
 		code.nativeGroup = this;
 		code.templateDefStartToken = defT;
-		templates.put(name, code);
+		if ( foldConstants ) ConstantFolder.fold(code);
+		if ( compactBytecode ) code.setOperandSize(code.getSmallestOperandSize(1));
+		if ( discardDebugInfo ) code.discardDebugInfo();
+		if ( staged!=null ) {
+			staged.templates.put(name, code);
+			return;
+		}
+		putTemplate(name, code);
+		importsChanged();
+	}
+
+	/** Start collecting template definitions instead of compiling them as
+	 *  they are parsed. Returns {@code false} if parallel compilation is off
+	 *  or a load is already collecting.
+	 */
+	protected boolean deferTemplateDefinitions() {
+		if ( compileExecutor==null || compileLazily || pendingDefinitions.get()!=null ) return false;
+		pendingDefinitions.set(new ArrayList<PendingDefinition>());
+		return true;
+	}
+
+	/** Compile everything collected since {@link #deferTemplateDefinitions}
+	 *  on {@link #compileExecutor}, then define the results in parse order.
+	 */
+	protected void definePendingTemplates() {
+		List<PendingDefinition> defs = pendingDefinitions.get();
+		if ( defs==null || defs.isEmpty() ) return;
+		pendingDefinitions.set(new ArrayList<PendingDefinition>());
+		List<Future<?>> results = new ArrayList<Future<?>>(defs.size());
+		for (PendingDefinition d : defs) {
+			results.add(compileExecutor.submit(d));
+		}
+		for (int i = 0; i < defs.size(); i++) {
+			PendingDefinition d = defs.get(i);
+			try {
+				results.get(i).get();
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				d.run(); // finish here instead
+			}
+			catch (ExecutionException ee) {
+				// same as if it had failed while parsing on this thread
+				Throwable cause = ee.getCause();
+				if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+				if ( cause instanceof Error ) throw (Error)cause;
+				throw new STException("can't compile "+d.getName(), (Exception)cause);
+			}
+			d.define();
+		}
+	}
+
+	protected void endDeferredTemplateDefinitions() {
+		try {
+			definePendingTemplates();
+		}
+		finally {
+			pendingDefinitions.remove();
+		}
+	}
+
+	/** Record {@code d} to be compiled when first looked up. */
+	protected synchronized void defineOnFirstUse(PendingDefinition d) {
+		String enclosing = d.regionSurroundingTemplateName;
+		if ( enclosing!=null ) {
+			if ( templates.containsKey(enclosing) ) { // already in use
+				d.run();
+				d.define();
+				return;
+			}
+			List<PendingDefinition> regions = lazyRegions.get(enclosing);
+			if ( regions==null ) {
+				regions = new ArrayList<PendingDefinition>();
+				lazyRegions.put(enclosing, regions);
+			}
+			regions.add(d);
+			return;
+		}
+		String name = d.fullyQualifiedTemplateName;
+		if ( templates.containsKey(name) || lazyDefinitions.containsKey(name) ) {
+			// define both now so the redefinition is reported
+			rawGetTemplate(name);
+			d.run();
+			d.define();
+			return;
+		}
+		lazyDefinitions.put(name, d);
+	}
+
+	/** Compile and define {@code name}, or the template enclosing region
+	 *  {@code name}, if it was recorded by {@link #defineOnFirstUse(PendingDefinition)}.
+	 */
+	protected synchronized CompiledST defineOnFirstUse(String name) {
+		CompiledST code = templates.get(name);
+		if ( code!=null || definingOnFirstUse ) return code;
+		String enclosing = name;
+		if ( name.startsWith("/region__") && name.lastIndexOf("__")>"/region__".length() ) {
+			enclosing = name.substring("/region__".length(), name.lastIndexOf("__"));
+		}
+		defineRecorded(enclosing);
+		return templates.get(name);
+	}
+
+	/** Compile everything still waiting for {@link #defineOnFirstUse(String)}. */
+	protected synchronized void defineAllOnFirstUse() {
+		while ( !lazyDefinitions.isEmpty() ) {
+			defineRecorded(lazyDefinitions.keySet().iterator().next());
+		}
+		while ( !lazyRegions.isEmpty() ) {
+			defineRecorded(lazyRegions.keySet().iterator().next());
+		}
+	}
+
+	protected void defineRecorded(String templateName) {
+		PendingDefinition d = lazyDefinitions.remove(templateName);
+		List<PendingDefinition> regions = lazyRegions.remove(templateName);
+		definingOnFirstUse = true;
+		try {
+			if ( d!=null ) {
+				d.run();
+				d.define();
+			}
+			if ( regions!=null ) {
+				for (PendingDefinition r : regions) {
+					r.run();
+					r.define();
+				}
+			}
+		}
+		finally {
+			definingOnFirstUse = false;
+		}
+	}
+
+	/** A template or region definition whose body compiles off the loading
+	 *  thread; {@link #define} must run on the loading thread.
+	 */
+	protected class PendingDefinition implements Runnable {
+		final String fullyQualifiedTemplateName;
+		final String regionSurroundingTemplateName;
+		final Token templateToken;
+		final String template;
+		final Token nameToken;
+		final List<FormalArgument> args;
+		final ErrorReplayBuffer bodyErrors = new ErrorReplayBuffer();
+		final ErrorReplayBuffer defaultValueErrors = new ErrorReplayBuffer();
+		/** Set for templates loaded from their own {@code .st} file. */
+		String prefix;
+		CompiledST code;
+		boolean defaultValuesCompiled;
+		boolean done;
+
+		PendingDefinition(String fullyQualifiedTemplateName,
+						  String regionSurroundingTemplateName,
+						  Token templateToken,
+						  String template,
+						  Token nameToken,
+						  List<FormalArgument> args)
+		{
+			this.fullyQualifiedTemplateName = fullyQualifiedTemplateName;
+			this.regionSurroundingTemplateName = regionSurroundingTemplateName;
+			this.templateToken = templateToken;
+			this.template = template;
+			this.nameToken = nameToken;
+			this.args = args;
+		}
+
+		String getName() {
+			if ( regionSurroundingTemplateName!=null ) {
+				return getMangledRegionName(regionSurroundingTemplateName, nameToken.getText());
+			}
+			return fullyQualifiedTemplateName;
+		}
+
+		@Override
+		public synchronized void run() {
+			if ( done ) return;
+			done = true;
+			try {
+				if ( regionSurroundingTemplateName!=null ) {
+					code = compile(getFileName(), regionSurroundingTemplateName, null,
+								   template, templateToken, new ErrorManager(bodyErrors));
+				}
+				else {
+					code = compile(getFileName(), fullyQualifiedTemplateName, args,
+								   template, templateToken, new ErrorManager(bodyErrors));
+					code.compileArgDefaultValueTemplates(STGroup.this,
+														 new ErrorManager(defaultValueErrors));
+				}
+				defaultValuesCompiled = true;
+			}
+			catch (STException e) {
+				// already in the buffers; stop where sequential loading would
+			}
+		}
+
+		/** Report and define in the same order as {@link #defineTemplateOrRegion}. */
+		synchronized void define() {
+			bodyErrors.replay(errMgr.listener);
+			if ( code==null ) return;
+			if ( regionSurroundingTemplateName!=null ) {
+				defineCompiledRegion(regionSurroundingTemplateName, nameToken, templateToken, code);
+				return;
+			}
+			code.name = fullyQualifiedTemplateName;
+			rawDefineTemplate(fullyQualifiedTemplateName, code, nameToken);
+			if ( prefix!=null ) code.prefix = prefix;
+			defaultValueErrors.replay(errMgr.listener);
+			if ( !defaultValuesCompiled ) return;
+			code.defineArgDefaultValueTemplates(STGroup.this);
+			code.defineImplicitlyDefinedTemplates(STGroup.this); // define any anonymous subtemplates
+		}
 	}
 
 	public void undefineTemplate(String name) {
-		templates.remove(name);
+		checkNotFrozen();
+		if ( templates.remove(name)!=null ) templateOrder.remove(name);
+		importsChanged();
 	}
 
 	/** Compile a template. */
@@ -443,8 +1177,26 @@ public class STGroup {
 							  String template,
 							  Token templateToken) // for error location
     {
+		return compile(srcName, name, args, template, templateToken, errMgr);
+	}
+
+	/** Compile a template, reporting errors to {@code errMgr}. */
+	public CompiledST compile(String srcName,
+							  String name,
+							  List<FormalArgument> args,
+							  String template,
+							  Token templateToken,
+							  ErrorManager errMgr)
+	{
 		//System.out.println("STGroup.compile: "+enclosingTemplateName);
+		if ( sharedTemplateCache!=null ) {
+			return sharedTemplateCache.compile(this, srcName, name, args, template, templateToken, errMgr);
+		}
+		if ( compiledTemplateCache!=null ) {
+			return compiledTemplateCache.compile(this, srcName, name, args, template, templateToken, errMgr);
+		}
 		Compiler c = new Compiler(this);
+		c.errMgr = errMgr;
 		return c.compile(srcName, name, args, template, templateToken);
 	}
 
@@ -474,7 +1226,14 @@ public class STGroup {
 	 * Not thread safe...do not keep adding these while you reference them.</p>
      */
     public void defineDictionary(String name, Map<String,Object> mapping) {
+		checkNotFrozen();
+		FileDefinitions staged = tracksFiles() ? staging.get() : null;
+		if ( staged!=null ) {
+			staged.dictionaries.put(name, mapping);
+			return;
+		}
         dictionaries.put(name, mapping);
+		importsChanged();
     }
 
     /**
@@ -533,6 +1292,7 @@ public class STGroup {
 		if ( isTemplateFile ) {
 			g = new STGroup(delimiterStartChar, delimiterStopChar);
 			g.setListener(this.getListener());
+			inheritSettings(g);
 			URL fileURL;
 			if ( Misc.urlExists(fileUnderRoot) ) fileURL = fileUnderRoot;
 			else fileURL = getURL(fileName); // try CLASSPATH
@@ -558,10 +1318,12 @@ public class STGroup {
 			if ( Misc.urlExists(fileUnderRoot) ) {
 				g = new STGroupFile(fileUnderRoot, encoding, delimiterStartChar, delimiterStopChar);
 				g.setListener(this.getListener());
+				inheritSettings(g);
 			}
 			else {
 				g = new STGroupFile(fileName, delimiterStartChar, delimiterStopChar);
 				g.setListener(this.getListener());
+				inheritSettings(g);
 			}
 		}
 		else if ( isGroupDir ) {
@@ -569,12 +1331,14 @@ public class STGroup {
 			if ( Misc.urlExists(fileUnderRoot) ) {
 				g = new STGroupDir(fileUnderRoot, encoding, delimiterStartChar, delimiterStopChar);
 				g.setListener(this.getListener());
+				inheritSettings(g);
 			}
 			else {
 				// try in CLASSPATH
 //				System.out.println("try dir in CLASSPATH "+fileName);
 				g = new STGroupDir(fileName, delimiterStartChar, delimiterStopChar);
 				g.setListener(this.getListener());
+				inheritSettings(g);
 			}
 		}
 
@@ -587,9 +1351,28 @@ public class STGroup {
 		}
 	}
 
+	/** Pass the settings that imports inherit on to {@code g}, a group
+	 *  created by {@link #importTemplates(Token)}.
+	 */
+	protected void inheritSettings(STGroup g) {
+		g.compiledTemplateCache = compiledTemplateCache;
+		g.compileExecutor = compileExecutor;
+		g.compileLazily = compileLazily;
+		g.discardDebugInfo = discardDebugInfo;
+		g.compactBytecode = compactBytecode;
+		g.foldConstants = foldConstants;
+		g.maxInlinedCodeSize = maxInlinedCodeSize;
+		g.hotReload = hotReload;
+		g.sharedTemplateCache = sharedTemplateCache;
+	}
+
 	protected void importTemplates(STGroup g, boolean clearOnUnload) {
+		checkNotFrozen();
 		if ( g==null ) return;
+		g.importers.add(this);
 		imports.add(g);
+		importsVersion.incrementAndGet();
+		importsChanged(); // our importers now see g's names too
 		if (clearOnUnload) {
 			importsToClearOnUnload.add(g);
 		}
@@ -601,15 +1384,34 @@ public class STGroup {
 	public void loadGroupFile(String prefix, String fileName) {
 		if ( verbose ) System.out.println(this.getClass().getSimpleName()+
 										  ".loadGroupFile(group-file-prefix="+prefix+", fileName="+fileName+")");
-		GroupParser parser;
+		ANTLRInputStream fs;
 		try {
 			URL f = new URL(fileName);
-			ANTLRInputStream fs = new ANTLRInputStream(f.openStream(), encoding);
-			GroupLexer lexer = new GroupLexer(fs);
+			fs = new ANTLRInputStream(f.openStream(), encoding);
 			fs.name = fileName;
+		}
+		catch (Exception e) {
+			errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, e, fileName);
+			return;
+		}
+		loadGroupFile(prefix, fileName, fs);
+	}
+
+	/** Load group file contents from {@code groupStream} into this group
+	 *  like {@link #loadGroupFile(String, String)}.
+	 */
+	public void loadGroupFile(String prefix, String fileName, CharStream groupStream) {
+		try {
+			GroupLexer lexer = new GroupLexer(groupStream);
 			CommonTokenStream tokens = new CommonTokenStream(lexer);
-			parser = new GroupParser(tokens);
-			parser.group(this, prefix);
+			GroupParser parser = new GroupParser(tokens);
+			boolean deferred = deferTemplateDefinitions();
+			try {
+				parser.group(this, prefix);
+			}
+			finally {
+				if ( deferred ) endDeferredTemplateDefinitions();
+			}
 		}
 		catch (Exception e) {
 			errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, e, fileName);
@@ -642,6 +1444,8 @@ public class STGroup {
 		GroupParser parser = new GroupParser(tokens);
 		parser.group = this;
 		lexer.group = this;
+		List<PendingDefinition> pending = pendingDefinitions.get();
+		int numPending = pending!=null ? pending.size() : 0;
 		try {
 			parser.templateDef(prefix);
 		}
@@ -650,6 +1454,12 @@ public class STGroup {
 									unqualifiedFileName,
 									re, re.getMessage());
 		}
+		if ( pending!=null ) { // not compiled yet; set prefix once defined
+			if ( pending.size()>numPending ) {
+				pending.get(pending.size()-1).prefix = prefix;
+			}
+			return null;
+		}
 		String templateName = Misc.getFileNameNoSuffix(unqualifiedFileName);
 		if ( prefix!=null && prefix.length()>0 ) templateName = prefix+templateName;
 		CompiledST impl = rawGetTemplate(templateName);
@@ -671,6 +1481,7 @@ public class STGroup {
 	 * calling {@link ST#render} for efficiency.</p>
 	 */
 	public void registerModelAdaptor(Class<?> attributeType, ModelAdaptor adaptor) {
+		checkNotFrozen();
 		if ( attributeType.isPrimitive() ) {
 			throw new IllegalArgumentException("can't register ModelAdaptor for primitive type "+
 											   attributeType.getSimpleName());
@@ -693,6 +1504,7 @@ public class STGroup {
 	}
 
 	public void registerRenderer(Class<?> attributeType, AttributeRenderer r, boolean recursive) {
+		checkNotFrozen();
 		if ( attributeType.isPrimitive() ) {
 			throw new IllegalArgumentException("can't register renderer for primitive type "+
 											   attributeType.getSimpleName());
@@ -703,11 +1515,12 @@ public class STGroup {
 		}
 
 		renderers.put(attributeType, r);
+		renderersVersion++;
 
 		if ( recursive ) {
 			load(); // make sure imports exist (recursively)
 			for (STGroup g : imports) {
-				g.registerRenderer(attributeType, r, true);
+				if ( !g.frozen ) g.registerRenderer(attributeType, r, true);
 			}
 		}
 	}
@@ -722,6 +1535,9 @@ public class STGroup {
 	 *  "helpers" that should give me templates and nothing else. If you
 	 *  have multiple renderers for {@code String}, say, then just make uber combined
 	 *  renderer with more specific format names.</p>
+	 * <p>
+	 *  The interpreter remembers the answer at each write instruction until
+	 *  {@link #registerRenderer} is called again on this group.</p>
 	 */
 	public AttributeRenderer getAttributeRenderer(Class<?> attributeType) {
 		if ( renderers==null ) {
@@ -731,6 +1547,86 @@ public class STGroup {
 		return renderers.get(attributeType);
 	}
 
+	/** Load and compile everything now, resolve every name imported groups
+	 *  provide, and swap this group's maps for read-only copies so lookups
+	 *  take no locks. Defining, importing, registering, unloading or
+	 *  watching afterwards throws {@link IllegalStateException}; reloading
+	 *  does nothing. Names missing by then stay missing, so a group that
+	 *  can't list its files (an {@link STGroupDir} over http, say) should
+	 *  look up what it needs first. Call before sharing the group with
+	 *  other threads.
+	 *  <p>
+	 *  Only this group is frozen. Groups passed to
+	 *  {@link #importTemplates(STGroup)} may be shared, so they must be
+	 *  frozen separately, before this group; otherwise this throws
+	 *  {@link IllegalStateException}. Groups this one created for the
+	 *  {@code import} statements in its own files are part of it and are
+	 *  frozen with it.</p>
+	 */
+	public synchronized STGroup freeze() {
+		if ( frozen ) return this;
+		for (STGroup g : imports.toArray(new STGroup[0])) {
+			if ( !g.frozen && !importsToClearOnUnload.contains(g) ) {
+				throw new IllegalStateException("group "+getName()+" imports "+
+												g.getName()+", which isn't frozen");
+			}
+		}
+		stopWatching();
+		hotReload = false;
+		loadAll();
+		defineAllOnFirstUse();
+		compileLazily = false;
+		STGroup[] imps = imports.toArray(new STGroup[0]);
+		Map<String, CompiledST> importedT = new HashMap<String, CompiledST>();
+		Map<String, Map<String,Object>> importedD = new HashMap<String, Map<String,Object>>();
+		for (STGroup g : imps) { // depth first; first one to define a name wins
+			if ( !g.frozen ) g.freeze(); // one of our own import statements
+			Set<String> names = g.getTemplateNames();
+			names.addAll(g.importedTemplates.keySet());
+			for (String name : names) {
+				if ( !importedT.containsKey(name) ) {
+					CompiledST code = g.lookupTemplate(name);
+					if ( code!=null ) importedT.put(name, code);
+				}
+			}
+			Set<String> dictNames = new HashSet<String>(g.dictionaries.keySet());
+			dictNames.addAll(g.importedDictionaries.keySet());
+			for (String name : dictNames) {
+				if ( !importedD.containsKey(name) ) importedD.put(name, g.lookupDictionary(name));
+			}
+		}
+		Map<String, CompiledST> own = new HashMap<String, CompiledST>();
+		for (Map.Entry<String, CompiledST> e : templates.entrySet()) {
+			if ( e.getValue()!=NOT_FOUND_ST ) own.put(e.getKey(), e.getValue());
+		}
+		templates = Collections.unmodifiableMap(own);
+		synchronized (dictionaries) {
+			dictionaries = Collections.unmodifiableMap(new HashMap<String, Map<String,Object>>(dictionaries));
+		}
+		importedTemplates = Collections.unmodifiableMap(importedT);
+		importedDictionaries = Collections.unmodifiableMap(importedD);
+		imports = Collections.unmodifiableList(Arrays.asList(imps));
+		synchronized (adaptors) {
+			adaptors = new FrozenTypeRegistry<ModelAdaptor>(adaptors);
+		}
+		if ( renderers!=null ) {
+			synchronized (renderers) {
+				renderers = new FrozenTypeRegistry<AttributeRenderer>(renderers);
+			}
+		}
+		frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() { return frozen; }
+
+	/** Load every template this group can find, ahead of {@link #freeze}. */
+	protected void loadAll() { load(); }
+
+	protected void checkNotFrozen() {
+		if ( frozen ) throw new IllegalStateException("group "+getName()+" is frozen");
+	}
+
 	public ST createStringTemplate(CompiledST impl) {
 		ST st = new ST();
 		st.impl = impl;
@@ -785,9 +1681,10 @@ public class STGroup {
     public String show() {
         StringBuilder buf = new StringBuilder();
         if ( imports.size()!=0 ) buf.append(" : "+imports);
-        for (String name : templates.keySet()) {
+        defineAllOnFirstUse();
+        for (String name : getTemplateOrder()) {
 			CompiledST c = rawGetTemplate(name);
-			if ( c.isAnonSubtemplate || c==NOT_FOUND_ST ) continue;
+			if ( c==null || c.isAnonSubtemplate || c==NOT_FOUND_ST ) continue;
             int slash = name.lastIndexOf('/');
             name = name.substring(slash+1, name.length());
             buf.append(name);
@@ -809,8 +1706,18 @@ public class STGroup {
 		errMgr = new ErrorManager(listener);
 	}
 
+	/** Return the names of defined templates in the order they were defined. */
+	protected List<String> getTemplateOrder() {
+		synchronized (templateOrder) {
+			return new ArrayList<String>(new LinkedHashSet<String>(templateOrder));
+		}
+	}
+
 	public Set<String> getTemplateNames() {
-		load();
+		if ( !frozen ) {
+			load();
+			defineAllOnFirstUse();
+		}
 		HashSet<String> result = new HashSet<String>();
 		for (Map.Entry<String, CompiledST> e: templates.entrySet()) {
 			if (e.getValue() != NOT_FOUND_ST) {
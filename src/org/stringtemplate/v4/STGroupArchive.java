@@ -0,0 +1,193 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4;
+
+import org.antlr.runtime.*;
+import org.stringtemplate.v4.compiler.*;
+import org.stringtemplate.v4.misc.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/** A zip or jar file full of templates and/or group files, laid out like an
+ *  {@link STGroupDir}. The archive is opened once and its central directory
+ *  answers every lookup; entries are decoded when a template is first
+ *  needed. Group file is given precedence over directory with same name.
+ */
+public class STGroupArchive extends STGroup {
+	public String archiveFileName;
+
+	/** Directory within the archive holding the templates, like
+	 *  {@code "org/foo/templates/"}; empty for the archive root.
+	 */
+	public String rootDir;
+
+	protected ZipFile archive;
+
+	public STGroupArchive(String archiveFileName) { this(archiveFileName, '<', '>'); }
+
+	public STGroupArchive(String archiveFileName, char delimiterStartChar, char delimiterStopChar) {
+		this(archiveFileName, "", "UTF-8", delimiterStartChar, delimiterStopChar);
+	}
+
+	public STGroupArchive(String archiveFileName, String encoding) {
+		this(archiveFileName, "", encoding, '<', '>');
+	}
+
+	public STGroupArchive(String archiveFileName, String rootDir, String encoding,
+						  char delimiterStartChar, char delimiterStopChar)
+	{
+		super(delimiterStartChar, delimiterStopChar);
+		if ( !new File(archiveFileName).isFile() ) {
+			throw new IllegalArgumentException("No such archive: "+archiveFileName);
+		}
+		this.archiveFileName = archiveFileName;
+		if ( rootDir.startsWith("/") ) rootDir = rootDir.substring(1);
+		if ( rootDir.length()>0 && !rootDir.endsWith("/") ) rootDir += "/";
+		this.rootDir = rootDir;
+		this.encoding = encoding;
+	}
+
+	@Override
+	public void importTemplates(Token fileNameToken) {
+		String msg =
+			"import illegal in group files embedded in STGroupArchives; "+
+			"import "+fileNameToken.getText()+" in STGroupArchive "+this.getName();
+		throw new UnsupportedOperationException(msg);
+	}
+
+	/** Load a template from a template entry or group file entry.
+	 *  {@code name} is always fully-qualified.
+	 */
+	@Override
+	protected CompiledST load(String name) {
+		if ( verbose ) System.out.println("STGroupArchive.load("+name+")");
+		ZipFile zip = getArchive();
+		if ( zip==null ) return null;
+		String parent = Misc.getParent(name); // must have parent; it's fully-qualified
+		String prefix = Misc.getPrefix(name);
+		ZipEntry groupFile = zip.getEntry(rootDir+parent.substring(1)+GROUP_FILE_EXTENSION);
+		if ( groupFile!=null ) {
+			loadGroupEntry(zip, groupFile, prefix);
+			return rawGetTemplate(name);
+		}
+		String unqualifiedFileName = Misc.getFileName(name)+TEMPLATE_FILE_EXTENSION;
+		ZipEntry templateFile = zip.getEntry(rootDir+name.substring(1)+TEMPLATE_FILE_EXTENSION);
+		if ( templateFile==null ) return null;
+		CharStream fs = open(zip, templateFile, ErrorType.NO_SUCH_TEMPLATE);
+		if ( fs==null ) return null;
+		return loadTemplateFile(prefix, unqualifiedFileName, fs);
+	}
+
+	protected void loadGroupEntry(ZipFile zip, ZipEntry groupFile, String prefix) {
+		CharStream fs = open(zip, groupFile, ErrorType.CANT_LOAD_GROUP_FILE);
+		if ( fs!=null ) loadGroupFile(prefix, groupFile.getName(), fs);
+	}
+
+	/** Load every template and group file entry under {@link #rootDir}. */
+	@Override
+	protected void loadAll() {
+		ZipFile zip = getArchive();
+		if ( zip==null ) return;
+		Set<String> loadedGroups = new HashSet<String>();
+		for (Map.Entry<String, CompiledST> e : templates.entrySet()) {
+			if ( e.getValue()!=NOT_FOUND_ST ) loadedGroups.add(Misc.getParent(e.getKey()));
+		}
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while ( entries.hasMoreElements() ) {
+			ZipEntry entry = entries.nextElement();
+			String path = entry.getName();
+			if ( entry.isDirectory() || !path.startsWith(rootDir) ) continue;
+			path = "/"+path.substring(rootDir.length());
+			if ( path.endsWith(GROUP_FILE_EXTENSION) ) {
+				String name = path.substring(0, path.length()-GROUP_FILE_EXTENSION.length());
+				if ( loadedGroups.add(name) ) loadGroupEntry(zip, entry, name+"/");
+			}
+			else if ( path.endsWith(TEMPLATE_FILE_EXTENSION) ) {
+				lookupTemplate(path.substring(0, path.length()-TEMPLATE_FILE_EXTENSION.length()));
+			}
+		}
+	}
+
+	/** Decode an entry, reporting {@code error} if it can't be read. */
+	protected CharStream open(ZipFile zip, ZipEntry entry, ErrorType error) {
+		InputStream is = null;
+		try {
+			is = zip.getInputStream(entry);
+			ANTLRInputStream fs = new ANTLRInputStream(is, encoding);
+			fs.name = entry.getName();
+			return fs;
+		}
+		catch (IOException ioe) {
+			errMgr.IOError(null, error, ioe, entry.getName());
+			return null;
+		}
+		finally {
+			try {
+				if ( is!=null ) is.close();
+			}
+			catch (IOException ioe) {
+				errMgr.internalError(null, "can't close "+entry.getName(), ioe);
+			}
+		}
+	}
+
+	/** Open the archive the first time it's needed. */
+	protected synchronized ZipFile getArchive() {
+		if ( archive==null ) {
+			try {
+				archive = new ZipFile(archiveFileName);
+			}
+			catch (IOException ioe) {
+				errMgr.IOError(null, ErrorType.CANT_LOAD_GROUP_FILE, ioe, archiveFileName);
+			}
+		}
+		return archive;
+	}
+
+	/** Also close the archive so a replaced file is reread. */
+	@Override
+	public synchronized void unload() {
+		super.unload();
+		if ( archive!=null ) {
+			try {
+				archive.close();
+			}
+			catch (IOException ioe) {
+				errMgr.internalError(null, "can't close "+archiveFileName, ioe);
+			}
+			archive = null;
+		}
+	}
+
+	@Override
+	public String getName() { return new File(archiveFileName).getName(); }
+	@Override
+	public String getFileName() { return archiveFileName; }
+}
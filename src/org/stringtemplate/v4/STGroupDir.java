@@ -33,6 +33,12 @@ import org.stringtemplate.v4.misc.*;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.*;
 
 // TODO: caching?
 
@@ -45,6 +51,56 @@ public class STGroupDir extends STGroup {
     public String groupDirName;
     public URL root;
 
+	/** Paths like {@code /a/b.st} and {@code /a.stg} of every template and
+	 *  group file under {@link #root}, listed once so that looking up a
+	 *  missing template doesn't touch the file system. {@code null} if
+	 *  {@link #root} can't be listed; then {@link #load(String)} probes URLs.
+	 */
+	protected volatile Set<String> index;
+	protected volatile boolean indexed = false;
+
+	/** Files loaded while {@link #hotReload} or a limit is set, by path like
+	 *  {@code /a/b.st}.
+	 */
+	protected final ConcurrentMap<String, LoadedFile> loadedFiles =
+		new ConcurrentHashMap<String, LoadedFile>();
+
+	/** When a file was read, what it defined and when it was last used. */
+	protected static class LoadedFile {
+		final long lastModified;
+		final FileDefinitions defined;
+		final int size;
+		volatile long lastUsed = System.nanoTime();
+		LoadedFile(long lastModified, FileDefinitions defined) {
+			this.lastModified = lastModified;
+			this.defined = defined;
+			int n = 0;
+			for (CompiledST code : defined.templates.values()) n += code.getApproximateSize();
+			this.size = n;
+		}
+	}
+
+	/** Once more templates than this are loaded, unload the files least
+	 *  recently used until 10% fewer are; they load again from source when
+	 *  next needed. 0 means no limit.
+	 */
+	public int maxLoadedTemplates = 0;
+
+	/** Same as {@link #maxLoadedTemplates} but for the approximate bytes
+	 *  the compiled templates hold; see {@link CompiledST#getApproximateSize}.
+	 */
+	public long maxLoadedBytes = 0;
+
+	/** With a limit set, the loaded file that defined each template. */
+	protected final Map<String, LoadedFile> fileOfTemplate =
+		new ConcurrentHashMap<String, LoadedFile>();
+
+	protected final AtomicInteger loadedTemplates = new AtomicInteger();
+	protected final AtomicLong loadedBytes = new AtomicLong();
+	protected final AtomicLong lookupCount = new AtomicLong();
+	protected final AtomicLong loadCount = new AtomicLong();
+	protected final AtomicLong evictionCount = new AtomicLong();
+
     public STGroupDir(String dirName) { this(dirName, '<', '>'); }
 
     public STGroupDir(String dirName, char delimiterStartChar, char delimiterStopChar) {
@@ -110,6 +166,7 @@ public class STGroupDir extends STGroup {
 	@Override
     protected CompiledST load(String name) {
 		if ( verbose ) System.out.println("STGroupDir.load("+name+")");
+		if ( isBounded() ) loadCount.incrementAndGet();
         String parent = Misc.getParent(name); // must have parent; it's fully-qualified
 		String prefix = Misc.getPrefix(name);
 //    	if (parent.isEmpty()) {
@@ -117,6 +174,17 @@ public class STGroupDir extends STGroup {
 //            return loadTemplateFile("/", name+TEMPLATE_FILE_EXTENSION); // load t.st file
 //    	}
 
+		Set<String> index = getIndex();
+		if ( index!=null ) {
+			if ( index.contains(parent+GROUP_FILE_EXTENSION) ) {
+				loadFile(parent+GROUP_FILE_EXTENSION);
+				return rawGetTemplate(name);
+			}
+			if ( !index.contains(name+TEMPLATE_FILE_EXTENSION) ) return null;
+			loadFile(name+TEMPLATE_FILE_EXTENSION);
+			return rawGetTemplate(name);
+		}
+
         URL groupFileURL = null;
         try { // see if parent of template name is a group file
             groupFileURL = new URL(root+parent+GROUP_FILE_EXTENSION);
@@ -148,6 +216,304 @@ public class STGroupDir extends STGroup {
         return rawGetTemplate(name);
     }
 
+	protected Set<String> getIndex() {
+		if ( !indexed ) {
+			synchronized (this) {
+				if ( !indexed ) {
+					index = buildIndex();
+					indexed = true;
+				}
+			}
+		}
+		return index;
+	}
+
+	/** List template and group files in a directory on disk or in a jar. */
+	protected Set<String> buildIndex() {
+		Set<String> files = new HashSet<String>();
+		try {
+			if ( "file".equals(root.getProtocol()) ) {
+				File dir = new File(root.toURI());
+				if ( !dir.isDirectory() ) return null;
+				indexDir(dir, "/", files);
+				return files;
+			}
+			if ( "jar".equals(root.getProtocol()) ) {
+				JarURLConnection c = (JarURLConnection)root.openConnection();
+				String dir = c.getEntryName();
+				if ( dir==null ) dir = "";
+				else if ( !dir.endsWith("/") ) dir += "/";
+				Enumeration<JarEntry> entries = c.getJarFile().entries();
+				while ( entries.hasMoreElements() ) {
+					String entry = entries.nextElement().getName();
+					if ( entry.startsWith(dir) && isTemplateOrGroupFile(entry) ) {
+						files.add("/"+entry.substring(dir.length()));
+					}
+				}
+				return files;
+			}
+		}
+		catch (Exception e) {
+			if ( verbose ) System.out.println("can't index "+root+"; probing instead: "+e);
+		}
+		return null;
+	}
+
+	protected void indexDir(File dir, String prefix, Set<String> files) {
+		File[] list = dir.listFiles();
+		if ( list==null ) return;
+		for (File f : list) {
+			String name = f.getName();
+			if ( f.isDirectory() ) indexDir(f, prefix+name+"/", files);
+			else if ( isTemplateOrGroupFile(name) ) files.add(prefix+name);
+		}
+	}
+
+	protected static boolean isTemplateOrGroupFile(String name) {
+		return name.endsWith(TEMPLATE_FILE_EXTENSION) || name.endsWith(GROUP_FILE_EXTENSION);
+	}
+
+	/** Also forget the file listing so added or removed files are seen. */
+	@Override
+	public synchronized void unload() {
+		super.unload();
+		loadedFiles.clear();
+		fileOfTemplate.clear();
+		loadedTemplates.set(0);
+		loadedBytes.set(0);
+		indexed = false;
+		index = null;
+	}
+
+	/** With {@link #compileExecutor} set and a directory on disk, load every
+	 *  template file and group file beneath {@link #root} now, compiling them
+	 *  in parallel. Otherwise templates keep loading on demand. Call this
+	 *  before looking anything up.
+	 */
+	@Override
+	public void load() {
+		if ( compileExecutor==null || !"file".equals(root.getProtocol()) ) return;
+		File dir;
+		try {
+			dir = new File(root.toURI());
+		}
+		catch (URISyntaxException use) {
+			errMgr.internalError(null, "can't list "+root, use);
+			return;
+		}
+		// definitions must land while each file is staged to be tracked
+		boolean deferred = !hotReload && deferTemplateDefinitions();
+		try {
+			loadDir(dir, "/");
+		}
+		finally {
+			if ( deferred ) endDeferredTemplateDefinitions();
+		}
+	}
+
+	/** Load every file in the listing; without one, only {@link #load()}.
+	 *  Drops any limit on loaded templates.
+	 */
+	@Override
+	protected void loadAll() {
+		maxLoadedTemplates = 0;
+		maxLoadedBytes = 0;
+		Set<String> index = getIndex();
+		if ( index==null ) {
+			load();
+			return;
+		}
+		Set<String> loadedGroups = new HashSet<String>();
+		for (Map.Entry<String, CompiledST> e : templates.entrySet()) {
+			if ( e.getValue()!=NOT_FOUND_ST ) loadedGroups.add(Misc.getParent(e.getKey()));
+		}
+		for (String path : index) {
+			if ( path.endsWith(GROUP_FILE_EXTENSION) ) {
+				String name = path.substring(0, path.length()-GROUP_FILE_EXTENSION.length());
+				if ( !loadedGroups.contains(name) ) loadFile(path);
+			}
+			else {
+				String name = path.substring(0, path.length()-TEMPLATE_FILE_EXTENSION.length());
+				// group file is given precedence over directory with same name
+				if ( !index.contains(Misc.getParent(name)+GROUP_FILE_EXTENSION) ) lookupTemplate(name);
+			}
+		}
+	}
+
+	protected void loadDir(File dir, String prefix) {
+		File[] files = dir.listFiles();
+		if ( files==null ) return;
+		for (File f : files) {
+			String name = f.getName();
+			if ( f.isDirectory() ) {
+				// group file is given precedence over directory with same name
+				if ( new File(dir, name+GROUP_FILE_EXTENSION).exists() ) continue;
+				loadDir(f, prefix+name+"/");
+			}
+			else if ( name.endsWith(TEMPLATE_FILE_EXTENSION) ) {
+				String base = name.substring(0, name.length()-TEMPLATE_FILE_EXTENSION.length());
+				if ( rawGetTemplate(prefix+base)==null ) loadFile(prefix+name);
+			}
+			else if ( name.endsWith(GROUP_FILE_EXTENSION) ) {
+				loadFile(prefix+name);
+			}
+		}
+	}
+
+	/** Load the template or group file at {@code path} under {@link #root},
+	 *  tracking it for {@link #reloadChangedFiles} if {@link #hotReload} and
+	 *  for eviction if a limit is set.
+	 */
+	protected void loadFile(final String path) {
+		File f = hotReload ? getFile(path) : null;
+		if ( f==null && !isBounded() ) {
+			readFile(path);
+			return;
+		}
+		long lastModified = f!=null ? f.lastModified() : 0;
+		LoadedFile prev = loadedFiles.get(path);
+		FileDefinitions defined = loadStaged(new Runnable() {
+			@Override
+			public void run() { readFile(path); }
+		}, prev!=null ? prev.defined : null);
+		LoadedFile loaded = new LoadedFile(lastModified, defined);
+		loadedFiles.put(path, loaded);
+		if ( prev!=null ) forget(prev);
+		if ( isBounded() ) {
+			for (String name : defined.templates.keySet()) fileOfTemplate.put(name, loaded);
+			loadedTemplates.addAndGet(defined.templates.size());
+			loadedBytes.addAndGet(loaded.size);
+			evictIfNeeded(loaded);
+		}
+	}
+
+	protected boolean isBounded() { return maxLoadedTemplates>0 || maxLoadedBytes>0; }
+
+	@Override
+	protected boolean tracksFiles() { return hotReload || isBounded(); }
+
+	/** Note that {@code loaded}'s templates are no longer in the group. */
+	protected void forget(LoadedFile loaded) {
+		int n = 0;
+		for (String name : loaded.defined.templates.keySet()) {
+			if ( fileOfTemplate.remove(name)!=null ) n++;
+		}
+		if ( n>0 ) {
+			loadedTemplates.addAndGet(-n);
+			loadedBytes.addAndGet(-loaded.size);
+		}
+	}
+
+	@Override
+	public CompiledST lookupTemplate(String name) {
+		if ( !isBounded() ) return super.lookupTemplate(name);
+		if ( name.charAt(0)!='/' ) name = "/"+name;
+		lookupCount.incrementAndGet();
+		LoadedFile loaded = fileOfTemplate.get(name);
+		if ( loaded!=null ) loaded.lastUsed = System.nanoTime();
+		return super.lookupTemplate(name);
+	}
+
+	/** With a limit set, misses aren't recorded; the index answers them. */
+	@Override
+	protected void putTemplate(String name, CompiledST code) {
+		if ( code==NOT_FOUND_ST && isBounded() && index!=null ) return;
+		super.putTemplate(name, code);
+	}
+
+	/** Unload least recently used files, other than the one just loaded,
+	 *  until under 90% of the limits.
+	 */
+	protected synchronized void evictIfNeeded(LoadedFile justLoaded) {
+		if ( !overLimit(1.0) ) return;
+		List<Map.Entry<String, LoadedFile>> files =
+			new ArrayList<Map.Entry<String, LoadedFile>>(loadedFiles.entrySet());
+		Collections.sort(files, new Comparator<Map.Entry<String, LoadedFile>>() {
+			@Override
+			public int compare(Map.Entry<String, LoadedFile> a, Map.Entry<String, LoadedFile> b) {
+				long x = a.getValue().lastUsed, y = b.getValue().lastUsed;
+				return x<y ? -1 : (x==y ? 0 : 1);
+			}
+		});
+		for (Map.Entry<String, LoadedFile> e : files) {
+			if ( !overLimit(0.9) ) break;
+			if ( e.getValue()==justLoaded ) continue;
+			if ( !loadedFiles.remove(e.getKey(), e.getValue()) ) continue;
+			unloadFile(e.getValue());
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	protected boolean overLimit(double fraction) {
+		return (maxLoadedTemplates>0 && loadedTemplates.get()>maxLoadedTemplates*fraction) ||
+			   (maxLoadedBytes>0 && loadedBytes.get()>maxLoadedBytes*fraction);
+	}
+
+	/** Undefine everything {@code loaded} defined. */
+	protected void unloadFile(LoadedFile loaded) {
+		loadStaged(new Runnable() {
+			@Override
+			public void run() { } // define nothing
+		}, loaded.defined);
+		forget(loaded);
+	}
+
+	/** Lookups that found a loaded template. */
+	public long getCacheHits() { return lookupCount.get()-loadCount.get(); }
+	/** Lookups that had to read a file, or found nothing. */
+	public long getCacheMisses() { return loadCount.get(); }
+	/** Files unloaded to stay under the limits. */
+	public long getCacheEvictions() { return evictionCount.get(); }
+
+	protected void readFile(String path) {
+		if ( path.endsWith(GROUP_FILE_EXTENSION) ) {
+			// same prefix load(name) gives templates in a group file
+			String prefix = path.substring(0, path.length()-GROUP_FILE_EXTENSION.length())+"/";
+			loadGroupFile(prefix, root+path);
+		}
+		else {
+			loadTemplateFile(Misc.getPrefix(path), Misc.getFileName(path));
+		}
+	}
+
+	/** The file at {@code path} if {@link #root} is a directory on disk. */
+	protected File getFile(String path) {
+		if ( !"file".equals(root.getProtocol()) ) return null;
+		try {
+			return new File(new File(root.toURI()), path);
+		}
+		catch (URISyntaxException use) {
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized int reloadChangedFiles() {
+		int n = super.reloadChangedFiles();
+		if ( !hotReload ) return n;
+		for (Map.Entry<String, LoadedFile> e : loadedFiles.entrySet()) {
+			String path = e.getKey();
+			File f = getFile(path);
+			if ( f==null || (f.exists() && f.lastModified()==e.getValue().lastModified) ) continue;
+			if ( f.exists() ) {
+				loadFile(path);
+			}
+			else {
+				loadedFiles.remove(path);
+				unloadFile(e.getValue());
+			}
+			n++;
+		}
+		if ( indexed ) { // pick up added files
+			Set<String> files = buildIndex();
+			if ( files!=null && !files.equals(index) ) {
+				index = files;
+				forgetMissingTemplates();
+			}
+		}
+		return n;
+	}
+
 	/** Load .st as relative file name relative to root by {@code prefix}. */
 	public CompiledST loadTemplateFile(String prefix, String unqualifiedFileName) {
 		if ( verbose ) System.out.println("loadTemplateFile("+unqualifiedFileName+") in groupdir "+
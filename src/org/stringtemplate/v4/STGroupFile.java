@@ -27,6 +27,7 @@
  */
 package org.stringtemplate.v4;
 
+import org.antlr.runtime.Token;
 import org.stringtemplate.v4.compiler.*;
 import org.stringtemplate.v4.misc.*;
 
@@ -44,6 +45,13 @@ public class STGroupFile extends STGroup {
 
     protected boolean alreadyLoaded = false;
 
+	/** With {@link #hotReload}, when the file was read and what it defined. */
+	protected long lastModified;
+	protected FileDefinitions loaded;
+
+	/** Set while rereading the file; its imports are already in place. */
+	protected boolean reloading = false;
+
     /** Load a file relative to current directory or from root or via CLASSPATH. */
 	public STGroupFile(String fileName) { this(fileName, '<', '>'); }
 
@@ -121,6 +129,47 @@ public class STGroupFile extends STGroup {
 	public synchronized void unload() {
 		super.unload();
 		alreadyLoaded = false;
+		loaded = null;
+	}
+
+	@Override
+	public void importTemplates(Token fileNameToken) {
+		if ( reloading ) return;
+		super.importTemplates(fileNameToken);
+	}
+
+	@Override
+	public synchronized int reloadChangedFiles() {
+		int n = super.reloadChangedFiles();
+		File f = getFile();
+		if ( !hotReload || !alreadyLoaded || f==null || f.lastModified()==lastModified ) return n;
+		reloading = true;
+		try {
+			loadTracked(f);
+		}
+		finally {
+			reloading = false;
+		}
+		return n+1;
+	}
+
+	protected void loadTracked(File f) {
+		lastModified = f.lastModified();
+		loaded = loadStaged(new Runnable() {
+			@Override
+			public void run() { loadGroupFile("/", url.toString()); }
+		}, loaded);
+	}
+
+	/** The group file if it's on disk. */
+	protected File getFile() {
+		if ( !"file".equals(url.getProtocol()) ) return null;
+		try {
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException use) {
+			return null;
+		}
 	}
 
 	@Override
@@ -130,13 +179,15 @@ public class STGroupFile extends STGroup {
     }
 
 	@Override
-    public void load() {
+    public synchronized void load() {
         if ( alreadyLoaded ) return;
         alreadyLoaded = true; // do before actual load to say we're doing it
 		// no prefix since this group file is the entire group, nothing lives
 		// beneath it.
 		if ( verbose ) System.out.println("loading group file "+url.toString());
-        loadGroupFile("/", url.toString());
+		File f = hotReload ? getFile() : null;
+		if ( f!=null ) loadTracked(f);
+		else loadGroupFile("/", url.toString());
 		if ( verbose ) System.out.println("found "+templates.size()+" templates in "+url.toString()+" = "+templates.keySet());
     }
 
@@ -0,0 +1,158 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4;
+
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.misc.FrozenTypeRegistry;
+import org.stringtemplate.v4.misc.TypeRegistry;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/** A group that customizes a base group, such as a per-tenant skin over
+ *  shared templates. It holds only the templates, dictionaries, renderers
+ *  and model adaptors defined on it; everything else is looked up in
+ *  {@link #base} by reference, so many overlays can share one base cheaply.
+ *  <p>
+ *  Like an import, templates defined here take priority, even when called
+ *  from base templates rendered through the overlay, and {@code super.t()}
+ *  reaches the base's {@code t}. Base templates still see the base's
+ *  dictionaries and renderers. Finish setting up the base before creating
+ *  overlays of it.</p>
+ */
+public class STGroupOverlay extends STGroup {
+	public final STGroup base;
+
+	/** Model adaptors registered on this overlay; {@code null} if none. */
+	protected volatile Map<Class<?>, ModelAdaptor> overriddenAdaptors;
+
+	public STGroupOverlay(STGroup base) {
+		super(base.delimiterStartChar, base.delimiterStopChar);
+		this.base = base;
+		errMgr = base.errMgr;
+		encoding = base.encoding;
+		iterateAcrossValues = base.iterateAcrossValues;
+		compiledTemplateCache = base.compiledTemplateCache;
+		sharedTemplateCache = base.sharedTemplateCache;
+		discardDebugInfo = base.discardDebugInfo;
+		compactBytecode = base.compactBytecode;
+		foldConstants = base.foldConstants;
+		maxInlinedCodeSize = base.maxInlinedCodeSize;
+		base.importers.add(this); // lookups fall back on base like an import
+	}
+
+	/** Look here, then in {@link #base}; nothing is loaded into the overlay. */
+	@Override
+	public CompiledST lookupTemplate(String name) {
+		if ( name.charAt(0)!='/' ) name = "/"+name;
+		CompiledST code = rawGetTemplate(name);
+		if ( code!=null && code!=NOT_FOUND_ST ) return code;
+		return base.lookupTemplate(name);
+	}
+
+	@Override
+	protected CompiledST lookupImportedTemplate(String name) {
+		CompiledST code = base.lookupTemplate(name);
+		if ( code!=null ) return code;
+		return super.lookupImportedTemplate(name);
+	}
+
+	@Override
+	public Map<String,Object> lookupDictionary(String name) {
+		if ( isDictionary(name) ) return rawGetDictionary(name);
+		return base.lookupDictionary(name);
+	}
+
+	@Override
+	public AttributeRenderer getAttributeRenderer(Class<?> attributeType) {
+		AttributeRenderer r = super.getAttributeRenderer(attributeType);
+		if ( r!=null ) return r;
+		return base.getAttributeRenderer(attributeType);
+	}
+
+	/** Renderers fall back on {@link #base}, so its changes count too;
+	 *  both versions only grow, so the sum changes when either does.
+	 */
+	@Override
+	public int getRenderersVersion() {
+		return renderersVersion + base.getRenderersVersion();
+	}
+
+	@Override
+	public void registerModelAdaptor(Class<?> attributeType, ModelAdaptor adaptor) {
+		super.registerModelAdaptor(attributeType, adaptor);
+		synchronized (this) {
+			if ( overriddenAdaptors==null ) {
+				overriddenAdaptors = Collections.synchronizedMap(new TypeRegistry<ModelAdaptor>());
+			}
+		}
+		overriddenAdaptors.put(attributeType, adaptor);
+	}
+
+	@Override
+	public ModelAdaptor getModelAdaptor(Class<?> attributeType) {
+		Map<Class<?>, ModelAdaptor> overridden = overriddenAdaptors;
+		if ( overridden!=null ) {
+			ModelAdaptor adaptor = overridden.get(attributeType);
+			if ( adaptor!=null ) return adaptor;
+		}
+		return base.getModelAdaptor(attributeType);
+	}
+
+	/** Freezes only the overlay. Lookups read through to {@link #base},
+	 *  which other overlays may share, so freeze it separately to make
+	 *  those lock-free too.
+	 */
+	@Override
+	public synchronized STGroup freeze() {
+		if ( frozen ) return this;
+		Map<Class<?>, ModelAdaptor> overridden = overriddenAdaptors;
+		if ( overridden!=null ) {
+			synchronized (overridden) {
+				overriddenAdaptors = new FrozenTypeRegistry<ModelAdaptor>(overridden);
+			}
+		}
+		return super.freeze();
+	}
+
+	@Override
+	public Set<String> getTemplateNames() {
+		Set<String> names = base.getTemplateNames();
+		names.addAll(super.getTemplateNames());
+		return names;
+	}
+
+	@Override
+	public String getName() { return base.getName(); }
+	@Override
+	public String getFileName() { return base.getFileName(); }
+	@Override
+	public URL getRootDirURL() { return base.getRootDirURL(); }
+}
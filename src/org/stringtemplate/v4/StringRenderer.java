@@ -40,7 +40,20 @@ import java.util.Locale;
  *  <li>{@code xml-encode}:</li>
  * </ul>
  */
-public class StringRenderer implements AttributeRenderer {
+public class StringRenderer implements CompilableAttributeRenderer {
+    protected static final AttributeFormatter CAP = new AttributeFormatter() {
+        @Override
+        public String format(Object o) {
+            String s = (String)o;
+            return (s.length() > 0) ? Character.toUpperCase(s.charAt(0))+s.substring(1) : s;
+        }
+    };
+
+    protected static final AttributeFormatter XML_ENCODE = new AttributeFormatter() {
+        @Override
+        public String format(Object o) { return escapeHTML((String)o); }
+    };
+
     // trim(s) and strlen(s) built-in funcs; these are format options
     @Override
     public String toString(Object o, String formatString, Locale locale) {
@@ -64,6 +77,42 @@ public class StringRenderer implements AttributeRenderer {
         return String.format(locale, formatString, s);
     }
 
+    @Override
+    public AttributeFormatter compileFormat(final String formatString, final Locale locale) {
+        if ( formatString==null ) return null;
+        if ( formatString.equals("upper") ) {
+            return new AttributeFormatter() {
+                @Override
+                public String format(Object o) { return ((String)o).toUpperCase(locale); }
+            };
+        }
+        if ( formatString.equals("lower") ) {
+            return new AttributeFormatter() {
+                @Override
+                public String format(Object o) { return ((String)o).toLowerCase(locale); }
+            };
+        }
+        if ( formatString.equals("cap") ) return CAP;
+        if ( formatString.equals("url-encode") ) {
+            return new AttributeFormatter() {
+                @Override
+                public String format(Object o) {
+                    try {
+                        return URLEncoder.encode((String)o, "UTF-8");
+                    } catch (UnsupportedEncodingException ex) {
+                        // UTF-8 is standard, should always be available
+                    }
+                    return String.format(locale, formatString, o);
+                }
+            };
+        }
+        if ( formatString.equals("xml-encode") ) return XML_ENCODE;
+        return new AttributeFormatter() {
+            @Override
+            public String format(Object o) { return String.format(locale, formatString, o); }
+        };
+    }
+
     public static String escapeHTML(String s) {
         if ( s==null ) {
             return null;
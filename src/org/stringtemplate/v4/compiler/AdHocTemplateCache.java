@@ -0,0 +1,148 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.ErrorReplayBuffer;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled code for templates written inline with {@link ST#ST(String)},
+ * {@link ST#ST(String, char, char)} and {@link ST#format}, keyed by template
+ * text and delimiters, so a snippet built over and over is parsed once. Each
+ * {@link ST} gets its own {@link CompiledST#share} copy since adding
+ * attributes defines arguments on it. Cached prototypes belong to no group,
+ * so the throwaway group of {@link ST#ST(String, char, char)} isn't kept
+ * alive.
+ * <p>
+ * Holds at most {@link #maxSize} templates; once full, arbitrary entries are
+ * dropped to make room. Templates with compile errors are never cached.
+ * Only the delimiters of the group are part of the key, so templates compiled
+ * by a group with other compiler settings are not told apart.</p>
+ */
+public class AdHocTemplateCache {
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	public final int maxSize;
+
+	protected final ConcurrentMap<Key, CompiledST> entries =
+		new ConcurrentHashMap<Key, CompiledST>();
+
+	protected static class Key {
+		final String template;
+		final char delimiterStartChar;
+		final char delimiterStopChar;
+		Key(String template, char delimiterStartChar, char delimiterStopChar) {
+			this.template = template;
+			this.delimiterStartChar = delimiterStartChar;
+			this.delimiterStopChar = delimiterStopChar;
+		}
+		@Override
+		public int hashCode() {
+			return template.hashCode()*31*31 + delimiterStartChar*31 + delimiterStopChar;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if ( !(o instanceof Key) ) return false;
+			Key other = (Key)o;
+			return delimiterStartChar==other.delimiterStartChar &&
+				   delimiterStopChar==other.delimiterStopChar &&
+				   template.equals(other.template);
+		}
+	}
+
+	public AdHocTemplateCache() { this(DEFAULT_MAX_SIZE); }
+
+	public AdHocTemplateCache(int maxSize) { this.maxSize = maxSize; }
+
+	/** Compile {@code template} for a new {@link ST} in {@code group}, or
+	 *  copy what was compiled for the same text before, and define its
+	 *  subtemplates in {@code group}.
+	 */
+	public CompiledST compile(STGroup group, String template) {
+		Key key = new Key(template, group.delimiterStartChar, group.delimiterStopChar);
+		CompiledST prototype = entries.get(key);
+		if ( prototype!=null ) {
+			CompiledST code = prototype.share(group);
+			if ( defineSubtemplates(group, code) ) return code;
+			// subtemplate names mean something else in this group; start over
+		}
+		ErrorReplayBuffer errors = new ErrorReplayBuffer();
+		CompiledST code;
+		int nerrors;
+		try {
+			code = group.compile(group.getFileName(), null, null, template, null,
+								 new ErrorManager(errors));
+		}
+		finally { // syntax errors can blast out of the compiler
+			nerrors = errors.size();
+			errors.replay(group.errMgr.listener);
+		}
+		if ( nerrors==0 ) { // cache a prototype that pins no group
+			code.detachFromGroup();
+			put(key, code);
+			code = code.share(group);
+		}
+		code.defineImplicitlyDefinedTemplates(group);
+		return code;
+	}
+
+	/** Define {@code code}'s subtemplates in {@code group} unless an earlier
+	 *  copy already did; false if their names are taken by other templates.
+	 */
+	protected boolean defineSubtemplates(STGroup group, CompiledST code) {
+		if ( code.implicitlyDefinedTemplates==null ) return true;
+		for (CompiledST sub : code.implicitlyDefinedTemplates) {
+			CompiledST defined = group.rawGetTemplate(sub.name);
+			if ( defined==null ) group.rawDefineTemplate(sub.name, sub, sub.templateDefStartToken);
+			else if ( defined.prototype!=sub.prototype ) return false;
+			if ( !defineSubtemplates(group, sub) ) return false;
+		}
+		return true;
+	}
+
+	protected void put(Key key, CompiledST code) {
+		if ( entries.size()>=maxSize ) { // make room for 10% more
+			Iterator<Key> it = entries.keySet().iterator();
+			while ( it.hasNext() && entries.size()>=maxSize*9/10 ) {
+				it.next();
+				it.remove();
+			}
+		}
+		entries.put(key, code);
+	}
+
+	public int size() { return entries.size(); }
+
+	public void clear() { entries.clear(); }
+}
@@ -0,0 +1,136 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A call with named arguments, {@code <t(x=a, y=b)>}, linked to the
+ * template it last called: the slot in the callee's locals for each
+ * {@code store_arg}, so the interpreter needn't collect the arguments in a
+ * map and look each name up again. Entries are immutable; the interpreter
+ * replaces the entry whenever the call resolves to a different template,
+ * so a racy read just costs an extra link.
+ */
+public final class ArgsSite {
+	/** A call we never link, such as {@code <super.t(x=a)>}. */
+	public static final ArgsSite UNLINKABLE = new ArgsSite(null, null, false, null, null, null);
+
+	/** Name of the template called, as the call instruction has it. */
+	public final String name;
+	/** Names of the arguments in the order they are stored. */
+	public final String[] argNames;
+	/** Whether the call ends with {@code ...}. */
+	public final boolean passThrough;
+	/** The template the slots are for; {@code null} until linked. */
+	public final CompiledST callee;
+	/** Slot of each argument in {@link #callee}; {@code null} if the call
+	 *  has errors to report, which only the slow path does.
+	 */
+	public final int[] slots;
+	/** Arguments of {@link #callee} that {@code ...} fills in. */
+	public final FormalArgument[] passThroughArgs;
+
+	public ArgsSite(String name, String[] argNames, boolean passThrough,
+					CompiledST callee, int[] slots, FormalArgument[] passThroughArgs)
+	{
+		this.name = name;
+		this.argNames = argNames;
+		this.passThrough = passThrough;
+		this.callee = callee;
+		this.slots = slots;
+		this.passThroughArgs = passThroughArgs;
+	}
+
+	/** Return this call linked to {@code callee}. */
+	public ArgsSite link(CompiledST callee) {
+		int[] slots = null;
+		List<FormalArgument> rest = new ArrayList<FormalArgument>();
+		if ( callee.hasFormalArgs && callee.formalArguments!=null ) {
+			slots = new int[argNames.length];
+			Set<String> given = new HashSet<String>();
+			for (int i = 0; i < argNames.length && slots!=null; i++) {
+				FormalArgument arg = callee.formalArguments.get(argNames[i]);
+				if ( arg==null ) slots = null; // no such attribute
+				else slots[i] = arg.index;
+				given.add(argNames[i]);
+			}
+			if ( slots!=null ) {
+				for (FormalArgument arg : callee.formalArguments.values()) {
+					if ( given.contains(arg.name) ) continue;
+					if ( passThrough ) rest.add(arg);
+					else if ( !arg.hasDefaultValue() ) {
+						slots = null; // argument count mismatch
+						break;
+					}
+				}
+			}
+		}
+		return new ArgsSite(name, argNames, passThrough, callee, slots,
+							rest.toArray(new FormalArgument[rest.size()]));
+	}
+
+	/** Scan the call whose {@code args} instruction is at {@code ip} in {@code code}. */
+	public static ArgsSite scan(CompiledST code, int ip) {
+		List<String> names = new ArrayList<String>();
+		boolean passThrough = false;
+		int depth = 0;
+		while ( ip < code.codeSize ) {
+			short opcode = (short)(code.instrs[ip]&0xFF);
+			Bytecode.Instruction I = Bytecode.instructions[opcode];
+			int opnd = 0;
+			if ( I.nopnds>0 ) opnd = BytecodeDisassembler.getOperand(code.instrs, ip+1, code.operandSize);
+			switch ( opcode ) {
+				case Bytecode.INSTR_ARGS :
+					depth++;
+					break;
+				case Bytecode.INSTR_STORE_ARG :
+					if ( depth==1 ) names.add(code.strings[opnd]);
+					break;
+				case Bytecode.INSTR_PASSTHRU :
+					if ( depth==1 ) passThrough = true;
+					break;
+				case Bytecode.INSTR_NEW_BOX_ARGS :
+					if ( --depth==0 ) {
+						return new ArgsSite(code.strings[opnd], names.toArray(new String[names.size()]),
+											passThrough, null, null, null);
+					}
+					break;
+				case Bytecode.INSTR_SUPER_NEW_BOX_ARGS :
+				case Bytecode.INSTR_BR :
+				case Bytecode.INSTR_BRF :
+					return UNLINKABLE;
+			}
+			ip += 1 + I.nopnds*code.operandSize;
+		}
+		return UNLINKABLE;
+	}
+}
@@ -31,6 +31,11 @@ public class Bytecode {
     public static final int MAX_OPNDS = 2;
     public static final int OPND_SIZE_IN_BYTES = 2;
 
+    /** Operands are this wide while a template compiles so addresses and
+     *  string indexes can pass 64K; see {@link CompiledST#setOperandSize}.
+     */
+    public static final int COMPILE_OPND_SIZE_IN_BYTES = 4;
+
     public enum OperandType { NONE, STRING, ADDR, INT }
 
     public static class Instruction {
@@ -110,7 +115,7 @@ public class Bytecode {
 	// combined instructions
 
 	public static final short INSTR_WRITE_STR       = 47; // load_str n, write
-	public static final short INSTR_WRITE_LOCAL     = 48; // TODO load_local n, write
+	public static final short INSTR_WRITE_LOCAL     = 48; // load_local n, write
 
 	public static final short MAX_BYTECODE          = 48;
 
@@ -49,8 +49,8 @@ public class BytecodeDisassembler {
             ip++;
             for (int opnd=0; opnd<I.nopnds; opnd++) {
                 buf.append(' ');
-                buf.append(getShort(code.instrs, ip));
-                ip += Bytecode.OPND_SIZE_IN_BYTES;
+                buf.append(getOperand(code.instrs, ip, code.operandSize));
+                ip += code.operandSize;
             }
         }
         return buf.toString();
@@ -86,8 +86,8 @@ public class BytecodeDisassembler {
         }
         List<String> operands = new ArrayList<String>();
         for (int i=0; i<I.nopnds; i++) {
-            int opnd = getShort(code.instrs, ip);
-            ip += Bytecode.OPND_SIZE_IN_BYTES;
+            int opnd = getOperand(code.instrs, ip, code.operandSize);
+            ip += code.operandSize;
             switch ( I.type[i] ) {
                 case STRING :
                     operands.add(showConstPoolOperand(opnd));
@@ -136,6 +136,13 @@ public class BytecodeDisassembler {
         return word;
     }
 
+    /** Read an unsigned operand of {@code size} bytes; see {@link CompiledST#operandSize}. */
+    public static int getOperand(byte[] memory, int index, int size) {
+        int word = 0;
+        for (int i = 0; i < size; i++) word = word<<8 | (memory[index+i]&0xFF);
+        return word;
+    }
+
     public String strings() {
 		StringBuilder buf = new StringBuilder();
 		int addr = 0;
@@ -157,13 +164,12 @@ public class BytecodeDisassembler {
 
     public String sourceMap() {
         StringBuilder buf = new StringBuilder();
-        int addr = 0;
-        for (Interval I : code.sourceMap) {
+        for (int addr = 0; addr < code.codeSize; addr++) {
+            Interval I = code.getSourceInterval(addr);
             if ( I!=null ) {
                 String chunk = code.template.substring(I.a,I.b+1);
                 buf.append( String.format("%04d: %s\t\"%s\"\n", addr, I, chunk) );
             }
-            addr++;
         }
         return buf.toString();
     }
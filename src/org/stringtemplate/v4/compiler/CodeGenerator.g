@@ -105,7 +105,7 @@ import org.stringtemplate.v4.*;
 	public void setOption(CommonTree id) {
 		$template::state.setOption(id);
 	}
-	public void write(int addr, short value) {
+	public void write(int addr, int value) {
 		$template::state.write(addr,value);
 	}
 	public int address() { return $template::state.ip; }
@@ -135,6 +135,7 @@ scope {
 		{ // finish off the CompiledST result
         if ( $template::state.stringtable!=null ) $impl.strings = $template::state.stringtable.toArray();
         $impl.codeSize = $template::state.ip;
+        $impl.setOperandSize($impl.getSmallestOperandSize(Bytecode.OPND_SIZE_IN_BYTES));
 		}
 	;
 
@@ -169,19 +170,7 @@ compoundElement[CommonTree indent]
 exprElement
 @init { short op = Bytecode.INSTR_WRITE; }
 	:	^( EXPR expr (exprOptions {op=Bytecode.INSTR_WRITE_OPT;})? )
-		{
-		/*
-		CompilationState state = $template::state;
-		CompiledST impl = state.impl;
-		if ( impl.instrs[state.ip-1] == Bytecode.INSTR_LOAD_LOCAL ) {
-			impl.instrs[state.ip-1] = Bytecode.INSTR_WRITE_LOCAL;
-		}
-		else {
-			emit($EXPR, op);
-		}
-		*/
-		emit($EXPR, op);
-		}
+		{$template::state.emitWrite($EXPR, op);}
 	;
 
 region[CommonTree indent] returns [String name]
@@ -270,7 +259,7 @@ ifstat[CommonTree indent]
 				endRefs.add(address()+1);
 				emit1($eif,Bytecode.INSTR_BR, -1); // br end
 				// update previous branch instruction
-				write(prevBranchOperand, (short)address());
+				write(prevBranchOperand, address());
 				prevBranchOperand = -1;
 				}
 				ec=conditional
@@ -287,7 +276,7 @@ ifstat[CommonTree indent]
 					endRefs.add(address()+1);
 					emit1($el, Bytecode.INSTR_BR, -1); // br end
 					// update previous branch instruction
-					write(prevBranchOperand, (short)address());
+					write(prevBranchOperand, address());
 					prevBranchOperand = -1;
 					}
 					chunk
@@ -296,9 +285,9 @@ ifstat[CommonTree indent]
 		 )
 		{
 		if ( prevBranchOperand>=0 ) {
-			write(prevBranchOperand, (short)address());
+			write(prevBranchOperand, address());
 		}
-        for (int opnd : endRefs) write(opnd, (short)address());
+        for (int opnd : endRefs) write(opnd, address());
 		}
 	;
 
@@ -50,6 +50,9 @@ public class CompilationState {
 	 */
 	int ip = 0;
 
+	/** Address of the most recently emitted instruction or -1 if unknown. */
+	int lastInstrAddr = -1;
+
 	TokenStream tokens;
 
 	ErrorManager errMgr;
@@ -59,6 +62,7 @@ public class CompilationState {
 		this.tokens = tokens;
 		impl.name = name;
 		impl.prefix = Misc.getPrefix(name);
+		impl.operandSize = Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
 	}
 
 	public int defineString(String s) { return stringtable.add(s); }
@@ -102,30 +106,53 @@ public class CompilationState {
 
 	public void emit(CommonTree opAST, short opcode) {
 		ensureCapacity(1);
-		if ( opAST!=null ) {
-			int i = opAST.getTokenStartIndex();
-			int j = opAST.getTokenStopIndex();
-			int p = ((CommonToken)tokens.get(i)).getStartIndex();
-			int q = ((CommonToken)tokens.get(j)).getStopIndex();
-			if ( !(p<0 || q<0) ) impl.sourceMap[ip] = new Interval(p, q);
-		}
+		if ( opAST!=null ) mapSource(opAST, ip);
+		lastInstrAddr = ip;
 		impl.instrs[ip++] = (byte)opcode;
 	}
 
+	/**
+	 * Emit the {@code write} or {@code write_opt} that ends expression
+	 * {@code exprAST}. An expression that is just a formal argument,
+	 * {@code <x>}, becomes a single {@code write_local} instead of
+	 * {@code load_local} followed by {@code write}.
+	 */
+	public void emitWrite(CommonTree exprAST, short opcode) {
+		if ( opcode==Bytecode.INSTR_WRITE && lastInstrAddr>=0 &&
+			 lastInstrAddr+1+Bytecode.COMPILE_OPND_SIZE_IN_BYTES==ip &&
+			 impl.instrs[lastInstrAddr]==Bytecode.INSTR_LOAD_LOCAL )
+		{
+			impl.instrs[lastInstrAddr] = (byte)Bytecode.INSTR_WRITE_LOCAL;
+			impl.sourceMap[lastInstrAddr] = null;
+			mapSource(exprAST, lastInstrAddr); // cover whole expr like a write
+			return;
+		}
+		emit(exprAST, opcode);
+	}
+
+	/** Record the template char range of {@code opAST} for instruction at {@code addr}. */
+	protected void mapSource(CommonTree opAST, int addr) {
+		int i = opAST.getTokenStartIndex();
+		int j = opAST.getTokenStopIndex();
+		int p = ((CommonToken)tokens.get(i)).getStartIndex();
+		int q = ((CommonToken)tokens.get(j)).getStopIndex();
+		if ( !(p<0 || q<0) ) impl.sourceMap[addr] = new Interval(p, q);
+	}
+
 	public void emit1(CommonTree opAST, short opcode, int arg) {
 		emit(opAST, opcode);
-		ensureCapacity(Bytecode.OPND_SIZE_IN_BYTES);
-		writeShort(impl.instrs, ip, (short)arg);
-		ip += Bytecode.OPND_SIZE_IN_BYTES;
+		ensureCapacity(Bytecode.COMPILE_OPND_SIZE_IN_BYTES);
+		writeOperand(impl.instrs, ip, arg);
+		ip += Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
 	}
 
 	public void emit2(CommonTree opAST, short opcode, int arg, int arg2) {
 		emit(opAST, opcode);
-		ensureCapacity(Bytecode.OPND_SIZE_IN_BYTES * 2);
-		writeShort(impl.instrs, ip, (short)arg);
-		ip += Bytecode.OPND_SIZE_IN_BYTES;
-		writeShort(impl.instrs, ip, (short)arg2);
-		ip += Bytecode.OPND_SIZE_IN_BYTES;
+		ensureCapacity(Bytecode.COMPILE_OPND_SIZE_IN_BYTES * 2);
+		writeOperand(impl.instrs, ip, arg);
+		ip += Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
+		writeOperand(impl.instrs, ip, arg2);
+		ip += Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
 	}
 
 	public void emit2(CommonTree opAST, short opcode, String s, int arg2) {
@@ -140,8 +167,8 @@ public class CompilationState {
 
 	public void insert(int addr, short opcode, String s) {
 		//System.out.println("before insert of "+opcode+"("+s+"):"+ Arrays.toString(impl.instrs));
-		ensureCapacity(1+Bytecode.OPND_SIZE_IN_BYTES);
-		int instrSize = 1 + Bytecode.OPND_SIZE_IN_BYTES;
+		ensureCapacity(1+Bytecode.COMPILE_OPND_SIZE_IN_BYTES);
+		int instrSize = 1 + Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
 		System.arraycopy(impl.instrs, addr,
 						 impl.instrs, addr + instrSize,
 						 ip-addr); // make room for opcode, opnd
@@ -149,6 +176,7 @@ public class CompilationState {
 		ip = addr;
 		emit1(null,opcode, s);
 		ip = save+instrSize;
+		lastInstrAddr = -1; // everything after addr moved
 		//System.out.println("after  insert of "+opcode+"("+s+"):"+ Arrays.toString(impl.instrs));
 		// adjust addresses for BR and BRF
 		int a=addr+instrSize;
@@ -156,16 +184,16 @@ public class CompilationState {
 			byte op = impl.instrs[a];
 			Bytecode.Instruction I = Bytecode.instructions[op];
 			if ( op == Bytecode.INSTR_BR || op == Bytecode.INSTR_BRF ) {
-				int opnd = BytecodeDisassembler.getShort(impl.instrs, a+1);
-				writeShort(impl.instrs, a+1, (short)(opnd+instrSize));
+				int opnd = BytecodeDisassembler.getOperand(impl.instrs, a+1, Bytecode.COMPILE_OPND_SIZE_IN_BYTES);
+				writeOperand(impl.instrs, a+1, opnd+instrSize);
 			}
-			a += I.nopnds * Bytecode.OPND_SIZE_IN_BYTES + 1;
+			a += I.nopnds * Bytecode.COMPILE_OPND_SIZE_IN_BYTES + 1;
 		}
 		//System.out.println("after  insert of "+opcode+"("+s+"):"+ Arrays.toString(impl.instrs));
 	}
 
-	public void write(int addr, short value) {
-		writeShort(impl.instrs, addr, value);
+	public void write(int addr, int value) {
+		writeOperand(impl.instrs, addr, value);
 	}
 
 	protected void ensureCapacity(int n) {
@@ -190,4 +218,17 @@ public class CompilationState {
 		memory[index+0] = (byte)((value>>(8*1))&0xFF);
 		memory[index+1] = (byte)(value&0xFF);
 	}
+
+	/** Write an operand at the width used during compilation. */
+	public static void writeOperand(byte[] memory, int index, int value) {
+		writeOperand(memory, index, Bytecode.COMPILE_OPND_SIZE_IN_BYTES, value);
+	}
+
+	/** Write {@code value} into {@code size} bytes, highest to lowest byte. */
+	public static void writeOperand(byte[] memory, int index, int size, int value) {
+		for (int i = size-1; i >= 0; i--) {
+			memory[index+i] = (byte)(value&0xFF);
+			value >>>= 8;
+		}
+	}
 }
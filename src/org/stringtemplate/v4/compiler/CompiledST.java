@@ -115,8 +115,42 @@ public class CompiledST implements Cloneable {
     public String[] strings;     // string operands of instructions
     public byte[] instrs;        // byte-addressable code memory.
     public int codeSize;
+
+	/** Bytes per instruction operand in {@link #instrs}: 1, 2 or 4. Templates
+	 *  compile to {@link Bytecode#OPND_SIZE_IN_BYTES} unless an address or
+	 *  string index needs more; see {@link #setOperandSize}.
+	 */
+	public int operandSize = Bytecode.OPND_SIZE_IN_BYTES;
     public Interval[] sourceMap; // maps IP to range in template pattern
 
+	/** {@link #sourceMap} packed as {@code start, stop} pairs per address,
+	 *  {@code -1} where there is no range. Replaces {@link #sourceMap} once
+	 *  {@link #discardDebugInfo} runs; use {@link #getSourceInterval}.
+	 */
+	public int[] packedSourceMap;
+
+	/**
+	 * Renderer resolution cached per write instruction, indexed by the
+	 * instruction's address. Created on first use; see
+	 * {@link Interpreter#writePOJO}.
+	 */
+	protected RenderSite[] renderSites;
+
+	/** Calls with named arguments linked to their callee, indexed by the
+	 *  address of their {@code args} instruction; see {@link ArgsSite}.
+	 */
+	protected ArgsSite[] argsSites;
+
+	/** The compiled template this one was copied from by {@link #share}.
+	 *  Holding it keeps it in a {@link SharedTemplateCache} for other groups.
+	 */
+	public CompiledST prototype;
+
+	/** Whether the code only writes text and arguments; 0 until
+	 *  {@link #isInlinable} has looked, then 1 or -1.
+	 */
+	protected byte writesOnlyTextAndArgs;
+
 	public CompiledST() {
         instrs = new byte[Compiler.TEMPLATE_INITIAL_CODE_SIZE];
         sourceMap = new Interval[Compiler.TEMPLATE_INITIAL_CODE_SIZE];
@@ -145,6 +179,246 @@ public class CompiledST implements Cloneable {
 		return clone;
 	}
 
+	/** A copy for {@code group} that shares this template's bytecode,
+	 *  strings and source map. Its group, render sites, formal argument
+	 *  table and subtemplates, copied the same way, are its own.
+	 */
+	public CompiledST share(STGroup group) {
+		CompiledST code;
+		try {
+			code = (CompiledST)super.clone();
+		}
+		catch (CloneNotSupportedException cnse) {
+			throw new IllegalStateException(cnse); // we're Cloneable
+		}
+		code.prototype = this;
+		code.nativeGroup = group;
+		code.renderSites = null;
+		code.argsSites = null;
+		if ( formalArguments!=null ) {
+			code.formalArguments = Collections.synchronizedMap(new LinkedHashMap<String,FormalArgument>(formalArguments));
+		}
+		if ( implicitlyDefinedTemplates!=null ) {
+			code.implicitlyDefinedTemplates = new ArrayList<CompiledST>();
+			for (CompiledST sub : implicitlyDefinedTemplates) {
+				code.implicitlyDefinedTemplates.add(sub.share(group));
+			}
+		}
+		return code;
+	}
+
+	/** Turn freshly compiled code into a prototype for {@link #share} that
+	 *  pins no group: clear {@link #nativeGroup} here and in subtemplates.
+	 */
+	public void detachFromGroup() {
+		nativeGroup = null;
+		if ( implicitlyDefinedTemplates!=null ) {
+			for (CompiledST sub : implicitlyDefinedTemplates) sub.detachFromGroup();
+		}
+	}
+
+	/** Return the range in {@link #template} that produced the instruction
+	 *  at {@code ip}, or {@code null}.
+	 */
+	public Interval getSourceInterval(int ip) {
+		if ( sourceMap!=null ) {
+			return ip>=0 && ip<sourceMap.length ? sourceMap[ip] : null;
+		}
+		int[] packed = packedSourceMap;
+		if ( packed==null || ip<0 || 2*ip>=packed.length || packed[2*ip]<0 ) return null;
+		return new Interval(packed[2*ip], packed[2*ip+1]);
+	}
+
+	/** Free what only {@link org.stringtemplate.v4.gui.STViz} and compile-time
+	 *  errors need: the {@link #ast}, the {@link #tokens} and the input behind
+	 *  {@link #templateDefStartToken}. Packs {@link #sourceMap} into
+	 *  {@link #packedSourceMap} so runtime errors still have line:col.
+	 */
+	public void discardDebugInfo() {
+		ast = null;
+		tokens = null;
+		if ( templateDefStartToken!=null && templateDefStartToken.getInputStream()!=null ) {
+			CommonToken t = new CommonToken(templateDefStartToken);
+			t.setInputStream(null);
+			templateDefStartToken = t;
+		}
+		if ( sourceMap!=null ) {
+			int[] packed = new int[2*codeSize];
+			for (int ip = 0; ip < codeSize; ip++) {
+				Interval I = ip<sourceMap.length ? sourceMap[ip] : null;
+				packed[2*ip] = I!=null ? I.a : -1;
+				packed[2*ip+1] = I!=null ? I.b : -1;
+			}
+			packedSourceMap = packed;
+			sourceMap = null;
+		}
+	}
+
+	/**
+	 * Return {@code true} if a call passing {@code nargs} arguments may run
+	 * this code in place of the caller rather than through a new instance.
+	 * The arguments must fill every formal argument and there must be no
+	 * default values, the code must be at most {@code maxCodeSize} bytes
+	 * ({@link STGroup#maxInlinedCodeSize}), and it may only write
+	 * text, its own arguments, newlines and indentation. Such a template never
+	 * consults the enclosing scope, calls another template, or branches.
+	 */
+	public boolean isInlinable(int nargs, int maxCodeSize) {
+		if ( codeSize>maxCodeSize ) return false;
+		int nformalArgs = formalArguments!=null ? formalArguments.size() : 0;
+		if ( nargs!=nformalArgs || numberOfArgsWithDefaultValues>0 ) return false;
+		if ( writesOnlyTextAndArgs==0 ) {
+			boolean only = true;
+			int ip = 0;
+			while ( ip < codeSize && only ) {
+				short opcode = instrs[ip];
+				switch ( opcode ) {
+					case Bytecode.INSTR_WRITE_STR :
+					case Bytecode.INSTR_WRITE_LOCAL :
+					case Bytecode.INSTR_INDENT :
+					case Bytecode.INSTR_DEDENT :
+					case Bytecode.INSTR_NEWLINE :
+					case Bytecode.INSTR_NOOP :
+						break;
+					default :
+						only = false;
+				}
+				ip += 1 + Bytecode.instructions[opcode].nopnds*operandSize;
+			}
+			writesOnlyTextAndArgs = (byte)(only ? 1 : -1);
+		}
+		return writesOnlyTextAndArgs>0;
+	}
+
+	/** Roughly how many bytes this template holds on to: its code, strings,
+	 *  source and source map. Tokens and AST count as a multiple of the
+	 *  source. Implicitly defined subtemplates are counted separately.
+	 */
+	public int getApproximateSize() {
+		int n = 64; // header and fields
+		if ( instrs!=null ) n += 16 + instrs.length;
+		if ( strings!=null ) {
+			n += 16 + 4*strings.length;
+			for (String s : strings) if ( s!=null ) n += 40 + 2*s.length();
+		}
+		int len = template!=null ? template.length() : 0;
+		n += 40 + 2*len;
+		if ( sourceMap!=null ) n += 16 + 28*sourceMap.length;
+		if ( packedSourceMap!=null ) n += 16 + 4*packedSourceMap.length;
+		if ( tokens!=null ) n += 8*len;
+		if ( ast!=null ) n += 8*len;
+		return n;
+	}
+
+	/** Return the smallest operand size, at least {@code minSize}, that holds
+	 *  every operand and branch address once the code is re-encoded.
+	 */
+	public int getSmallestOperandSize(int minSize) {
+		int max = 0;
+		int ninstrs = 0;
+		int nopnds = 0;
+		int ip = 0;
+		while ( ip < codeSize ) {
+			Bytecode.Instruction I = Bytecode.instructions[instrs[ip]];
+			ip++;
+			for (int i = 0; i < I.nopnds; i++) {
+				if ( I.type[i]!=Bytecode.OperandType.ADDR ) {
+					max = Math.max(max, BytecodeDisassembler.getOperand(instrs, ip, operandSize));
+				}
+				ip += operandSize;
+			}
+			ninstrs++;
+			nopnds += I.nopnds;
+		}
+		for (int size = 1; size < 4; size *= 2) {
+			if ( size<minSize ) continue;
+			int limit = (1<<(8*size))-1;
+			if ( max<=limit && ninstrs+nopnds*size<=limit ) return size;
+		}
+		return 4;
+	}
+
+	/** Re-encode {@link #instrs} with operands of {@code size} bytes, moving
+	 *  branch targets and the source map along with the instructions.
+	 */
+	public void setOperandSize(int size) {
+		if ( size==operandSize ) return;
+		int[] newAddr = new int[codeSize+1];
+		int ip = 0;
+		int newIP = 0;
+		while ( ip < codeSize ) {
+			newAddr[ip] = newIP;
+			int n = Bytecode.instructions[instrs[ip]].nopnds;
+			ip += 1 + n*operandSize;
+			newIP += 1 + n*size;
+		}
+		newAddr[codeSize] = newIP;
+
+		byte[] code = new byte[newIP];
+		Interval[] map = sourceMap!=null ? new Interval[newIP] : null;
+		int[] packed = packedSourceMap!=null ? new int[2*newIP] : null;
+		if ( packed!=null ) Arrays.fill(packed, -1);
+		ip = 0;
+		while ( ip < codeSize ) {
+			int a = newAddr[ip];
+			byte op = instrs[ip];
+			Bytecode.Instruction I = Bytecode.instructions[op];
+			code[a] = op;
+			if ( map!=null && ip<sourceMap.length ) map[a] = sourceMap[ip];
+			if ( packed!=null ) {
+				packed[2*a] = packedSourceMap[2*ip];
+				packed[2*a+1] = packedSourceMap[2*ip+1];
+			}
+			ip++;
+			for (int i = 0; i < I.nopnds; i++) {
+				int opnd = BytecodeDisassembler.getOperand(instrs, ip, operandSize);
+				if ( I.type[i]==Bytecode.OperandType.ADDR ) opnd = newAddr[opnd];
+				CompilationState.writeOperand(code, a+1+i*size, size, opnd);
+				ip += operandSize;
+			}
+		}
+		instrs = code;
+		codeSize = newIP;
+		if ( map!=null ) sourceMap = map;
+		if ( packed!=null ) packedSourceMap = packed;
+		operandSize = size;
+		renderSites = null; // indexed by address
+		argsSites = null;
+	}
+
+	/** Return the cached renderer lookup for the write instruction at {@code ip}, if any. */
+	public RenderSite getRenderSite(int ip) {
+		RenderSite[] sites = renderSites;
+		if ( sites==null || ip<0 || ip>=sites.length ) return null;
+		return sites[ip];
+	}
+
+	public void setRenderSite(int ip, RenderSite site) {
+		RenderSite[] sites = renderSites;
+		if ( sites==null ) {
+			if ( ip<0 || ip>=codeSize ) return;
+			sites = new RenderSite[codeSize];
+			renderSites = sites;
+		}
+		if ( ip>=0 && ip<sites.length ) sites[ip] = site;
+	}
+
+	public ArgsSite getArgsSite(int ip) {
+		ArgsSite[] sites = argsSites;
+		if ( sites==null || ip<0 || ip>=sites.length ) return null;
+		return sites[ip];
+	}
+
+	public void setArgsSite(int ip, ArgsSite site) {
+		ArgsSite[] sites = argsSites;
+		if ( sites==null ) {
+			if ( ip<0 || ip>=codeSize ) return;
+			sites = new ArgsSite[codeSize];
+			argsSites = sites;
+		}
+		if ( ip>=0 && ip<sites.length ) sites[ip] = site;
+	}
+
     public void addImplicitlyDefinedTemplate(CompiledST sub) {
 		sub.prefix = this.prefix;
 		if ( sub.name.charAt(0)!='/' ) sub.name = sub.prefix+sub.name;
@@ -162,14 +436,9 @@ public class CompiledST implements Cloneable {
 				numberOfArgsWithDefaultValues++;
 				switch (fa.defaultValueToken.getType()) {
 				case GroupParser.ANONYMOUS_TEMPLATE:
-					String argSTname = fa.name + "_default_value";
-					Compiler c2 = new Compiler(group);
-					String defArgTemplate =
-						Misc.strip(fa.defaultValueToken.getText(), 1);
-					fa.compiledDefaultValue =
-						c2.compile(group.getFileName(), argSTname, null,
-								   defArgTemplate, fa.defaultValueToken);
-					fa.compiledDefaultValue.name = argSTname;
+					if ( fa.compiledDefaultValue==null ) {
+						compileArgDefaultValueTemplate(group, fa, group.errMgr);
+					}
 					fa.compiledDefaultValue.defineImplicitlyDefinedTemplates(group);
 					break;
 
@@ -193,6 +462,37 @@ public class CompiledST implements Cloneable {
 		}
 	}
 
+	/** Compile the anonymous template default values without defining anything
+	 *  in {@code group}; {@link #defineArgDefaultValueTemplates} then reuses them.
+	 *  Safe to call off the loading thread.
+	 */
+	public void compileArgDefaultValueTemplates(STGroup group, ErrorManager errMgr) {
+		if ( formalArguments==null ) return;
+		for (FormalArgument fa : formalArguments.values()) {
+			if ( fa.defaultValueToken!=null &&
+				 fa.defaultValueToken.getType()==GroupParser.ANONYMOUS_TEMPLATE &&
+				 fa.compiledDefaultValue==null )
+			{
+				compileArgDefaultValueTemplate(group, fa, errMgr);
+			}
+		}
+	}
+
+	protected static void compileArgDefaultValueTemplate(STGroup group, FormalArgument fa,
+														 ErrorManager errMgr)
+	{
+		String argSTname = fa.name + "_default_value";
+		Compiler c2 = new Compiler(group);
+		c2.errMgr = errMgr;
+		String defArgTemplate =
+			Misc.strip(fa.defaultValueToken.getText(), 1);
+		CompiledST code =
+			c2.compile(group.getFileName(), argSTname, null,
+					   defArgTemplate, fa.defaultValueToken);
+		code.name = argSTname;
+		fa.compiledDefaultValue = code;
+	}
+
 	public void defineFormalArgs(List<FormalArgument> args) {
 		hasFormalArgs = true; // even if no args; it's formally defined
 		if ( args == null ) formalArguments = null;
@@ -226,7 +526,8 @@ public class CompiledST implements Cloneable {
 		if ( isAnonSubtemplate ) {
 			int start = Integer.MAX_VALUE;
 			int stop = Integer.MIN_VALUE;
-			for (Interval interval : sourceMap) {
+			for (int ip = 0; ip < codeSize; ip++) {
+				Interval interval = getSourceInterval(ip);
 				if (interval == null) {
 					continue;
 				}
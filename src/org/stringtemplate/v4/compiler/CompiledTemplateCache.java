@@ -0,0 +1,421 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.antlr.runtime.Token;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.Interval;
+import org.stringtemplate.v4.misc.STMessage;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * An on-disk cache of compiled templates. Each entry is a {@link CompiledST},
+ * along with its subtemplates and regions, in a compact binary form, stored
+ * under a hash of everything that affects compilation: the template source,
+ * its name and formal argument names, and the group's delimiters. A hit
+ * skips the lexer, parser and code generator altogether.
+ * <p>
+ * Set {@link STGroup#compiledTemplateCache} to use one. Templates with compile
+ * errors are never cached, so their errors are reported on every load.
+ * Templates read from the cache have no {@link CompiledST#ast} or
+ * {@link CompiledST#tokens}.</p>
+ */
+public class CompiledTemplateCache {
+	/** Bump when the bytecode or the layout below changes. */
+	public static final int FORMAT_VERSION = 2;
+
+	protected static final int MAGIC = 0x53544331; // "STC1"
+	protected static final String SUFFIX = ".stc";
+
+	/** Where entries are read and written; {@code null} if read-only. */
+	public final File dir;
+
+	/** Where entries are read from when read-only, such as a directory in a
+	 *  jar produced by {@link Precompiler}; otherwise {@code null}.
+	 */
+	public final URL root;
+
+	public CompiledTemplateCache(File dir) {
+		this.dir = dir;
+		this.root = null;
+	}
+
+	/** A read-only cache; nothing is written back to {@code root}. */
+	public CompiledTemplateCache(URL root) {
+		this.dir = null;
+		String s = root.toString();
+		if ( s.endsWith("/") ) this.root = root;
+		else {
+			try {
+				this.root = new URL(s+"/");
+			}
+			catch (MalformedURLException mue) {
+				throw new IllegalArgumentException("bad cache root "+root, mue);
+			}
+		}
+	}
+
+	/** Same as {@link Compiler#compile(String, String, List, String, Token)},
+	 *  but reuse an earlier result for identical input if there is one.
+	 */
+	public CompiledST compile(STGroup group,
+							  String srcName,
+							  String name,
+							  List<FormalArgument> args,
+							  String template,
+							  Token templateToken)
+	{
+		return compile(group, srcName, name, args, template, templateToken, group.errMgr);
+	}
+
+	/** Same as above, but report compile errors to {@code errMgr}. */
+	public CompiledST compile(STGroup group,
+							  String srcName,
+							  String name,
+							  List<FormalArgument> args,
+							  String template,
+							  Token templateToken,
+							  ErrorManager errMgr)
+	{
+		String key = getKey(group, name, args, template, templateToken);
+		CompiledST code = load(key, args, template, templateToken);
+		if ( code!=null ) {
+			code.nativeGroup = group;
+			return code;
+		}
+
+		final int[] errors = new int[1];
+		final STErrorListener listener = errMgr.listener;
+		Compiler c = new Compiler(group);
+		c.errMgr = new ErrorManager(new STErrorListener() {
+			@Override
+			public void compileTimeError(STMessage msg) { errors[0]++; listener.compileTimeError(msg); }
+			@Override
+			public void runTimeError(STMessage msg) { errors[0]++; listener.runTimeError(msg); }
+			@Override
+			public void IOError(STMessage msg) { errors[0]++; listener.IOError(msg); }
+			@Override
+			public void internalError(STMessage msg) { errors[0]++; listener.internalError(msg); }
+		});
+		code = c.compile(srcName, name, args, template, templateToken);
+		if ( code!=null && errors[0]==0 ) save(key, code, template);
+		return code;
+	}
+
+	public String getKey(STGroup group, String name, List<FormalArgument> args,
+						 String template, Token templateToken)
+	{
+		return computeKey(group, name, args, template, templateToken);
+	}
+
+	/** Hash everything about a template that affects what it compiles to. */
+	public static String computeKey(STGroup group, String name, List<FormalArgument> args,
+									String template, Token templateToken)
+	{
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae); // every JRE has SHA-1
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), md));
+		try {
+			out.writeInt(FORMAT_VERSION);
+			out.writeChar(group.delimiterStartChar);
+			out.writeChar(group.delimiterStopChar);
+			out.writeBoolean(templateToken!=null &&
+							 templateToken.getType()==GroupParser.BIGSTRING_NO_NL);
+			writeString(out, name);
+			if ( args==null ) out.writeInt(-1);
+			else {
+				out.writeInt(args.size());
+				for (FormalArgument a : args) writeString(out, a.name);
+			}
+			writeString(out, template);
+			out.close();
+		}
+		catch (IOException ioe) {
+			throw new IllegalStateException(ioe); // can't happen; writes go nowhere
+		}
+		StringBuilder buf = new StringBuilder();
+		for (byte b : md.digest()) {
+			buf.append(Character.forDigit((b>>4)&0xF, 16));
+			buf.append(Character.forDigit(b&0xF, 16));
+		}
+		return buf.toString();
+	}
+
+	/** Return the cached template for {@code key}, or {@code null} if there
+	 *  isn't one or it can't be read.
+	 */
+	protected CompiledST load(String key, List<FormalArgument> args,
+							  String template, Token templateToken)
+	{
+		DataInputStream in = null;
+		try {
+			InputStream is;
+			if ( dir!=null ) {
+				File f = new File(dir, key+SUFFIX);
+				if ( !f.isFile() ) return null;
+				is = new FileInputStream(f);
+			}
+			else {
+				is = new URL(root, key+SUFFIX).openStream();
+			}
+			in = new DataInputStream(new BufferedInputStream(is));
+			if ( in.readInt()!=MAGIC || in.readInt()!=FORMAT_VERSION ) return null;
+			CompiledST code = read(in, template, templateToken);
+			if ( args!=null ) { // keep the caller's args; they carry default values
+				code.formalArguments = null;
+				code.defineFormalArgs(args);
+			}
+			renameSubtemplates(code);
+			return code;
+		}
+		catch (IOException ioe) {
+			return null; // treat unreadable entries as misses
+		}
+		finally {
+			close(in);
+		}
+	}
+
+	protected void save(String key, CompiledST code, String template) {
+		if ( dir==null ) return; // read-only
+		if ( !dir.isDirectory() && !dir.mkdirs() ) return;
+		File tmp = null;
+		DataOutputStream out = null;
+		try {
+			tmp = File.createTempFile(key, ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			write(out, code, template);
+			out.close();
+			out = null;
+			File f = new File(dir, key+SUFFIX);
+			if ( !tmp.renameTo(f) ) {
+				// another loader may have beaten us to it; either copy will do
+				f.delete();
+				tmp.renameTo(f);
+			}
+		}
+		catch (IOException ioe) {
+			// the cache is an optimization only; compile again next time
+		}
+		finally {
+			close(out);
+			if ( tmp!=null && tmp.exists() ) tmp.delete();
+		}
+	}
+
+	protected void write(DataOutputStream out, CompiledST code, String template) throws IOException {
+		writeString(out, code.name);
+		writeString(out, code.prefix);
+		// almost always the source we were given; don't store it again
+		boolean sameTemplate = template.equals(code.template);
+		out.writeBoolean(sameTemplate);
+		if ( !sameTemplate ) writeString(out, code.template);
+		out.writeBoolean(code.hasFormalArgs);
+		out.writeBoolean(code.isRegion);
+		out.writeBoolean(code.isAnonSubtemplate);
+		out.writeByte(code.regionDefType!=null ? code.regionDefType.ordinal() : -1);
+
+		if ( code.formalArguments==null ) out.writeInt(-1);
+		else {
+			out.writeInt(code.formalArguments.size());
+			for (FormalArgument a : code.formalArguments.values()) writeString(out, a.name);
+		}
+
+		if ( code.strings==null ) out.writeInt(-1);
+		else {
+			out.writeInt(code.strings.length);
+			for (String s : code.strings) writeString(out, s);
+		}
+
+		out.writeInt(code.codeSize);
+		out.writeByte(code.operandSize);
+		out.write(code.instrs, 0, code.codeSize);
+		for (int ip = 0; ip < code.codeSize; ip++) {
+			Interval I = code.getSourceInterval(ip);
+			if ( I==null ) out.writeInt(-1);
+			else {
+				out.writeInt(I.a);
+				out.writeInt(I.b);
+			}
+		}
+
+		if ( code.implicitlyDefinedTemplates==null ) out.writeInt(-1);
+		else {
+			out.writeInt(code.implicitlyDefinedTemplates.size());
+			for (CompiledST sub : code.implicitlyDefinedTemplates) write(out, sub, template);
+		}
+	}
+
+	protected CompiledST read(DataInputStream in, String template, Token templateToken) throws IOException {
+		CompiledST code = new CompiledST();
+		code.name = readString(in);
+		code.prefix = readString(in);
+		code.template = in.readBoolean() ? template : readString(in);
+		code.hasFormalArgs = in.readBoolean();
+		code.isRegion = in.readBoolean();
+		code.isAnonSubtemplate = in.readBoolean();
+		int regionDefType = in.readByte();
+		if ( regionDefType>=0 ) code.regionDefType = ST.RegionType.values()[regionDefType];
+
+		int nargs = in.readInt();
+		if ( nargs>=0 ) {
+			code.formalArguments = Collections.synchronizedMap(new LinkedHashMap<String,FormalArgument>());
+			for (int i = 0; i < nargs; i++) code.addArg(new FormalArgument(readString(in)));
+		}
+
+		int nstrings = in.readInt();
+		if ( nstrings>=0 ) {
+			code.strings = new String[nstrings];
+			for (int i = 0; i < nstrings; i++) code.strings[i] = readString(in);
+		}
+
+		code.codeSize = in.readInt();
+		code.operandSize = in.readByte();
+		code.instrs = new byte[code.codeSize];
+		in.readFully(code.instrs);
+		code.sourceMap = new Interval[code.codeSize];
+		for (int ip = 0; ip < code.codeSize; ip++) {
+			int a = in.readInt();
+			if ( a>=0 ) code.sourceMap[ip] = new Interval(a, in.readInt());
+		}
+
+		int nsubs = in.readInt();
+		if ( nsubs>=0 ) {
+			code.implicitlyDefinedTemplates = new ArrayList<CompiledST>(nsubs);
+			for (int i = 0; i < nsubs; i++) {
+				CompiledST sub = read(in, template, templateToken);
+				// we no longer have the subtemplate's own token; point errors at
+				// the enclosing template instead
+				sub.templateDefStartToken = templateToken;
+				code.implicitlyDefinedTemplates.add(sub);
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Subtemplate names come from a global counter, so the names saved in the
+	 * cache could clash with templates compiled since. Give each anonymous
+	 * subtemplate a fresh name and point {@code new} instructions at it.
+	 */
+	protected void renameSubtemplates(CompiledST code) {
+		if ( code.implicitlyDefinedTemplates==null ) return;
+		Map<String, String> renamed = new HashMap<String, String>();
+		for (CompiledST sub : code.implicitlyDefinedTemplates) {
+			if ( !sub.isAnonSubtemplate ) continue;
+			int slash = sub.name.lastIndexOf('/');
+			String newName = Compiler.getNewSubtemplateName();
+			renamed.put(sub.name.substring(slash+1), newName);
+			sub.name = sub.name.substring(0, slash+1)+newName;
+		}
+		if ( renamed.isEmpty() ) return;
+		retarget(code, renamed);
+		for (CompiledST sub : code.implicitlyDefinedTemplates) retarget(sub, renamed);
+	}
+
+	protected void retarget(CompiledST code, Map<String, String> renamed) {
+		List<String> strings = null;
+		int operandSize = code.operandSize;
+		code.setOperandSize(Bytecode.COMPILE_OPND_SIZE_IN_BYTES); // room for new indexes
+		int ip = 0;
+		while ( ip < code.codeSize ) {
+			short opcode = (short)(code.instrs[ip]&0xFF);
+			Bytecode.Instruction I = Bytecode.instructions[opcode];
+			ip++;
+			if ( opcode==Bytecode.INSTR_NEW ) {
+				String newName = renamed.get(code.strings[BytecodeDisassembler.getOperand(code.instrs, ip, code.operandSize)]);
+				if ( newName!=null ) {
+					// append rather than overwrite; the old entry may also be text
+					if ( strings==null ) strings = new ArrayList<String>(Arrays.asList(code.strings));
+					int index = strings.indexOf(newName);
+					if ( index<0 ) {
+						index = strings.size();
+						strings.add(newName);
+					}
+					CompilationState.writeOperand(code.instrs, ip, index);
+				}
+			}
+			ip += I.nopnds*code.operandSize;
+		}
+		if ( strings!=null ) code.strings = strings.toArray(new String[strings.size()]);
+		code.setOperandSize(code.getSmallestOperandSize(operandSize));
+	}
+
+	protected static void writeString(DataOutputStream out, String s) throws IOException {
+		if ( s==null ) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	protected static String readString(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if ( n<0 ) return null;
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	protected static void close(Closeable c) {
+		if ( c==null ) return;
+		try {
+			c.close();
+		}
+		catch (IOException ioe) {
+			// nothing more to do
+		}
+	}
+
+	protected static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) { }
+
+		@Override
+		public void write(byte[] b, int off, int len) { }
+	}
+}
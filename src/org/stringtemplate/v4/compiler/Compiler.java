@@ -33,11 +33,13 @@ import org.antlr.runtime.tree.CommonTreeNodeStream;
 import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.ErrorManager;
 import org.stringtemplate.v4.misc.ErrorType;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** A compiler for a single template. */
 public class Compiler {
@@ -80,13 +82,21 @@ public class Compiler {
         }
     };
 
-	/** Name subtemplates {@code _sub1}, {@code _sub2}, ... */
-	public static int subtemplateCount = 0;
+	/** Name subtemplates {@code _sub1}, {@code _sub2}, ... Only reset it
+	 *  while nothing is compiling.
+	 */
+	public static final AtomicInteger subtemplateCount = new AtomicInteger();
 
 	public STGroup group;
 
+	/** Where compile errors go; {@code group.errMgr} unless set otherwise. */
+	public ErrorManager errMgr;
+
 	public Compiler() { this(STGroup.defaultGroup); }
-	public Compiler(STGroup group) { this.group = group; }
+	public Compiler(STGroup group) {
+		this.group = group;
+		this.errMgr = group.errMgr;
+	}
 
 	public CompiledST compile(String template) {
 		CompiledST code = compile(null, null, null, template, null);
@@ -114,7 +124,7 @@ public class Compiler {
 		if ( templateToken!=null &&
 			 templateToken.getType() == GroupParser.BIGSTRING_NO_NL )
 		{
-			lexer = new STLexer(group.errMgr, is, templateToken,
+			lexer = new STLexer(errMgr, is, templateToken,
 						group.delimiterStartChar, group.delimiterStopChar) {
 				/** Throw out \n and indentation tokens inside BIGSTRING_NO_NL */
 				@Override
@@ -130,11 +140,11 @@ public class Compiler {
 			};
 		}
 		else {
-			lexer = new STLexer(group.errMgr, is, templateToken,
+			lexer = new STLexer(errMgr, is, templateToken,
 								group.delimiterStartChar, group.delimiterStopChar);
 		}
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
-		STParser p = new STParser(tokens, group.errMgr, templateToken);
+		STParser p = new STParser(tokens, errMgr, templateToken);
 		STParser.templateAndEOF_return r = null;
 		try {
 			r = p.templateAndEOF();
@@ -152,7 +162,7 @@ public class Compiler {
 		//System.out.println(((CommonTree)r.getTree()).toStringTree());
 		CommonTreeNodeStream nodes = new CommonTreeNodeStream(r.getTree());
 		nodes.setTokenStream(tokens);
-		CodeGenerator gen = new CodeGenerator(nodes, group.errMgr, name, template, templateToken);
+		CodeGenerator gen = new CodeGenerator(nodes, errMgr, name, template, templateToken);
 
 		CompiledST impl=null;
 		try {
@@ -164,7 +174,7 @@ public class Compiler {
 			impl.tokens = tokens;
 		}
 		catch (RecognitionException re) {
-			group.errMgr.internalError(null, "bad tree structure", re);
+			errMgr.internalError(null, "bad tree structure", re);
 		}
 
 		return impl;
@@ -183,8 +193,7 @@ public class Compiler {
 	}
 
 	public static String getNewSubtemplateName() {
-		subtemplateCount++;
-		return SUBTEMPLATE_PREFIX+subtemplateCount;
+		return SUBTEMPLATE_PREFIX+subtemplateCount.incrementAndGet();
 	}
 
 	protected void reportMessageAndThrowSTException(TokenStream tokens, Token templateToken,
@@ -192,23 +201,23 @@ public class Compiler {
 	{
 		if ( re.token.getType() == STLexer.EOF_TYPE ) {
 			String msg = "premature EOF";
-			group.errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
+			errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
 		}
 		else if ( re instanceof NoViableAltException) {
 			String msg = "'"+re.token.getText()+"' came as a complete surprise to me";
-			group.errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
+			errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
 		}
 		else if ( tokens.index() == 0 ) { // couldn't parse anything
 			String msg = "this doesn't look like a template: \""+tokens+"\"";
-			group.errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
+			errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
 		}
 		else if ( tokens.LA(1) == STLexer.LDELIM ) { // couldn't parse expr
 			String msg = "doesn't look like an expression";
-			group.errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
+			errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
 		}
 		else {
 			String msg = parser.getErrorMessage(re, parser.getTokenNames());
-			group.errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
+			errMgr.compileTimeError(ErrorType.SYNTAX_ERROR, templateToken, re.token, msg);
 		}
 		throw new STException(); // we have reported the error, so just blast out
 	}
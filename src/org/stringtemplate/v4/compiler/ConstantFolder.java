@@ -0,0 +1,413 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.stringtemplate.v4.misc.Interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies compiled code where the outcome can't depend on the render:
+ * conditions on literals such as {@code <if(true)>} or {@code <if(!"x")>}
+ * become plain branches or disappear, code no branch can reach is removed,
+ * and adjacent literal text is joined, so a template that reduces to a
+ * line of text is a single {@link Bytecode#INSTR_WRITE_STR}.
+ * <p>
+ * Attribute references are never folded, not even dictionaries or
+ * arguments with constant default values: with dynamic scoping any
+ * enclosing template may define an attribute of the same name, and callers
+ * may pass arguments that override defaults.</p>
+ * <p>
+ * A {@link Bytecode#INSTR_NOOP} stays behind where removed code preceded a
+ * newline, since a newline looks at the instruction before it.</p>
+ */
+public class ConstantFolder {
+	/** A decoded instruction; branches point at their target instruction. */
+	protected static class Instr {
+		short opcode;
+		int[] opnds;
+		Instr target;
+		Interval source;
+		boolean isTarget;
+
+		Instr(short opcode, int[] opnds, Interval source) {
+			this.opcode = opcode;
+			this.opnds = opnds;
+			this.source = source;
+		}
+	}
+
+	protected final CompiledST code;
+	protected final List<String> strings;
+	protected final List<Instr> instrs = new ArrayList<Instr>();
+	/** Stands for the address just past the last instruction. */
+	protected final Instr end = new Instr(Bytecode.INSTR_NOOP, new int[0], null);
+
+	protected ConstantFolder(CompiledST code) {
+		this.code = code;
+		strings = new ArrayList<String>();
+		if ( code.strings!=null ) strings.addAll(Arrays.asList(code.strings));
+	}
+
+	/** Fold {@code code} in place; return {@code true} if anything changed. */
+	public static boolean fold(CompiledST code) {
+		return fold(code, null);
+	}
+
+	/** Fold {@code code} in place after replacing reads of the formal
+	 *  arguments named in {@code constants} with their values, where a value
+	 *  is a string, a boolean or {@code null}; other values stay arguments.
+	 */
+	public static boolean fold(CompiledST code, Map<String, ?> constants) {
+		if ( code.codeSize==0 ) return false;
+		ConstantFolder folder = new ConstantFolder(code);
+		folder.decode();
+		boolean changed = constants!=null && folder.substitute(constants);
+		while ( folder.simplify() | folder.removeUnreachable() | folder.removeNoops() ) {
+			changed = true;
+		}
+		if ( changed ) folder.encode();
+		return changed;
+	}
+
+	protected void decode() {
+		Instr[] at = new Instr[code.codeSize+1];
+		int ip = 0;
+		while ( ip < code.codeSize ) {
+			short opcode = (short)(code.instrs[ip]&0xFF);
+			Bytecode.Instruction I = Bytecode.instructions[opcode];
+			int[] opnds = new int[I.nopnds];
+			for (int i = 0; i < I.nopnds; i++) {
+				opnds[i] = BytecodeDisassembler.getOperand(code.instrs, ip+1+i*code.operandSize, code.operandSize);
+			}
+			Instr instr = new Instr(opcode, opnds, code.getSourceInterval(ip));
+			at[ip] = instr;
+			instrs.add(instr);
+			ip += 1 + I.nopnds*code.operandSize;
+		}
+		at[code.codeSize] = end;
+		for (Instr instr : instrs) {
+			if ( isBranch(instr) ) instr.target = at[instr.opnds[0]];
+		}
+	}
+
+	protected boolean substitute(Map<String, ?> constants) {
+		if ( code.formalArguments==null ) return false;
+		Map<Integer, Object> slots = new HashMap<Integer, Object>();
+		for (FormalArgument arg : code.formalArguments.values()) {
+			if ( !constants.containsKey(arg.name) ) continue;
+			Object v = constants.get(arg.name);
+			if ( v==null || v instanceof String || v instanceof Boolean ) slots.put(arg.index, v);
+		}
+		boolean changed = false;
+		for (Instr instr : instrs) {
+			if ( (instr.opcode!=Bytecode.INSTR_LOAD_LOCAL && instr.opcode!=Bytecode.INSTR_WRITE_LOCAL) ||
+				 !slots.containsKey(instr.opnds[0]) )
+			{
+				continue;
+			}
+			Object v = slots.get(instr.opnds[0]);
+			if ( instr.opcode==Bytecode.INSTR_LOAD_LOCAL ) {
+				if ( v instanceof String ) instr.opnds[0] = defineString((String)v);
+				instr.opcode = v instanceof String ? Bytecode.INSTR_LOAD_STR :
+							   v==null ? Bytecode.INSTR_NULL :
+							   (Boolean)v ? Bytecode.INSTR_TRUE : Bytecode.INSTR_FALSE;
+			}
+			else if ( v instanceof String ) {
+				instr.opcode = Bytecode.INSTR_WRITE_STR;
+				instr.opnds[0] = defineString((String)v);
+			}
+			else if ( v==null ) {
+				instr.opcode = Bytecode.INSTR_NOOP; // writes nothing
+			}
+			else {
+				continue; // leave booleans to the renderer
+			}
+			if ( instr.opcode!=Bytecode.INSTR_LOAD_STR && instr.opcode!=Bytecode.INSTR_WRITE_STR ) {
+				instr.opnds = new int[0];
+			}
+			changed = true;
+		}
+		return changed;
+	}
+
+	/** Rewrite constant expressions and trivial branches; one pass. */
+	protected boolean simplify() {
+		markTargets();
+		boolean changed = false;
+		for (int i = 0; i < instrs.size(); i++) {
+			Instr instr = instrs.get(i);
+			Instr next = get(i+1);
+			if ( instr.opcode==Bytecode.INSTR_BR && instr.target==(next!=null ? next : end) ) {
+				instr.opcode = Bytecode.INSTR_NOOP; // jump to next instruction
+				instr.target = null;
+				instr.opnds = new int[0];
+				changed = true;
+				continue;
+			}
+			if ( next==null || next.isTarget ) continue;
+			if ( isConstant(instr) ) {
+				switch ( next.opcode ) {
+					case Bytecode.INSTR_NOT :
+						setBoolean(instr, !isTrue(instr));
+						remove(i+1);
+						changed = true;
+						break;
+					case Bytecode.INSTR_BRF :
+						if ( isTrue(instr) ) {
+							instr.opcode = Bytecode.INSTR_NOOP;
+							instr.opnds = new int[0];
+						}
+						else {
+							instr.opcode = Bytecode.INSTR_BR;
+							instr.opnds = new int[1];
+							instr.target = next.target;
+						}
+						remove(i+1);
+						changed = true;
+						break;
+					case Bytecode.INSTR_TOSTR :
+						if ( instr.opcode==Bytecode.INSTR_LOAD_STR ) {
+							remove(i+1);
+							changed = true;
+						}
+						break;
+					case Bytecode.INSTR_WRITE :
+						if ( instr.opcode==Bytecode.INSTR_LOAD_STR ) {
+							instr.opcode = Bytecode.INSTR_WRITE_STR;
+							instr.source = union(instr.source, next.source);
+							remove(i+1);
+							changed = true;
+						}
+						break;
+					default :
+						Instr op = get(i+2);
+						if ( isConstant(next) && op!=null && !op.isTarget &&
+							 (op.opcode==Bytecode.INSTR_AND || op.opcode==Bytecode.INSTR_OR) )
+						{
+							boolean v = op.opcode==Bytecode.INSTR_AND ?
+								isTrue(instr) && isTrue(next) :
+								isTrue(instr) || isTrue(next);
+							setBoolean(instr, v);
+							remove(i+2);
+							remove(i+1);
+							changed = true;
+						}
+				}
+			}
+			else if ( instr.opcode==Bytecode.INSTR_WRITE_STR &&
+					  next.opcode==Bytecode.INSTR_WRITE_STR &&
+					  strings.get(next.opnds[0]).indexOf('\n')<0 )
+			{
+				// the writer's column after a newline depends on what the
+				// same write call put before it, so never join in front of one
+				instr.opnds[0] = defineString(strings.get(instr.opnds[0]) +
+											  strings.get(next.opnds[0]));
+				instr.source = union(instr.source, next.source);
+				remove(i+1);
+				i--; // may join the one after too
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/** Drop instructions that can't execute; branches never land on them. */
+	protected boolean removeUnreachable() {
+		int n = instrs.size();
+		boolean[] reached = new boolean[n+1];
+		List<Integer> work = new ArrayList<Integer>();
+		work.add(0);
+		while ( !work.isEmpty() ) {
+			int i = work.remove(work.size()-1);
+			if ( reached[i] ) continue;
+			reached[i] = true;
+			if ( i==n ) continue;
+			Instr instr = instrs.get(i);
+			if ( isBranch(instr) ) work.add(indexOf(instr.target));
+			if ( instr.opcode!=Bytecode.INSTR_BR ) work.add(i+1);
+		}
+		boolean changed = false;
+		for (int i = n-1; i >= 0; i--) {
+			if ( !reached[i] ) {
+				remove(i);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/** Drop no-ops unless a newline follows; see class comment. */
+	protected boolean removeNoops() {
+		boolean changed = false;
+		for (int i = instrs.size()-1; i >= 0; i--) {
+			Instr next = get(i+1);
+			if ( instrs.get(i).opcode==Bytecode.INSTR_NOOP &&
+				 (next==null || next.opcode!=Bytecode.INSTR_NEWLINE) )
+			{
+				remove(i);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	protected void encode() {
+		int size = Bytecode.COMPILE_OPND_SIZE_IN_BYTES;
+		int codeSize = 0;
+		int[] addr = new int[instrs.size()+1];
+		for (int i = 0; i < instrs.size(); i++) {
+			addr[i] = codeSize;
+			codeSize += 1 + instrs.get(i).opnds.length*size;
+		}
+		addr[instrs.size()] = codeSize;
+		// keep only the strings still referenced, in order of first use
+		List<String> used = new ArrayList<String>();
+		for (Instr instr : instrs) {
+			Bytecode.Instruction I = Bytecode.instructions[instr.opcode];
+			for (int j = 0; j < instr.opnds.length; j++) {
+				if ( I.type[j]!=Bytecode.OperandType.STRING ) continue;
+				String str = strings.get(instr.opnds[j]);
+				int k = used.indexOf(str);
+				if ( k<0 ) {
+					k = used.size();
+					used.add(str);
+				}
+				instr.opnds[j] = k;
+			}
+		}
+		byte[] bytes = new byte[codeSize];
+		Interval[] map = new Interval[codeSize];
+		for (int i = 0; i < instrs.size(); i++) {
+			Instr instr = instrs.get(i);
+			if ( isBranch(instr) ) instr.opnds[0] = addr[indexOf(instr.target)];
+			bytes[addr[i]] = (byte)instr.opcode;
+			map[addr[i]] = instr.source;
+			for (int j = 0; j < instr.opnds.length; j++) {
+				CompilationState.writeOperand(bytes, addr[i]+1+j*size, size, instr.opnds[j]);
+			}
+		}
+		int operandSize = code.operandSize;
+		code.instrs = bytes;
+		code.codeSize = codeSize;
+		code.operandSize = size;
+		if ( code.strings!=null ) code.strings = used.toArray(new String[used.size()]);
+		if ( code.packedSourceMap!=null ) {
+			int[] packed = new int[2*codeSize];
+			Arrays.fill(packed, -1);
+			for (int ip = 0; ip < codeSize; ip++) {
+				if ( map[ip]==null ) continue;
+				packed[2*ip] = map[ip].a;
+				packed[2*ip+1] = map[ip].b;
+			}
+			code.packedSourceMap = packed;
+		}
+		else {
+			code.sourceMap = map;
+		}
+		code.renderSites = null;
+		code.argsSites = null;
+		code.writesOnlyTextAndArgs = 0;
+		code.setOperandSize(code.getSmallestOperandSize(operandSize));
+	}
+
+	protected Instr get(int i) {
+		return i < instrs.size() ? instrs.get(i) : null;
+	}
+
+	protected int indexOf(Instr instr) {
+		if ( instr==end ) return instrs.size();
+		for (int i = 0; i < instrs.size(); i++) {
+			if ( instrs.get(i)==instr ) return i;
+		}
+		return instrs.size();
+	}
+
+	/** Remove the {@code i}th instruction; branches to it go to the next one. */
+	protected void remove(int i) {
+		Instr gone = instrs.remove(i);
+		Instr next = get(i);
+		if ( next==null ) next = end;
+		for (Instr instr : instrs) {
+			if ( instr.target==gone ) instr.target = next;
+		}
+		if ( gone.isTarget ) next.isTarget = true;
+	}
+
+	protected void markTargets() {
+		for (Instr instr : instrs) instr.isTarget = false;
+		for (Instr instr : instrs) {
+			if ( instr.target!=null ) instr.target.isTarget = true;
+		}
+	}
+
+	protected int defineString(String s) {
+		int i = strings.indexOf(s);
+		if ( i>=0 ) return i;
+		strings.add(s);
+		return strings.size()-1;
+	}
+
+	protected static boolean isBranch(Instr instr) {
+		return instr.opcode==Bytecode.INSTR_BR || instr.opcode==Bytecode.INSTR_BRF;
+	}
+
+	protected static boolean isConstant(Instr instr) {
+		switch ( instr.opcode ) {
+			case Bytecode.INSTR_TRUE :
+			case Bytecode.INSTR_FALSE :
+			case Bytecode.INSTR_NULL :
+			case Bytecode.INSTR_LOAD_STR :
+				return true;
+			default :
+				return false;
+		}
+	}
+
+	/** Whether the interpreter tests the constant as true; any string is
+	 *  present, even an empty one.
+	 */
+	protected static boolean isTrue(Instr instr) {
+		return instr.opcode==Bytecode.INSTR_TRUE || instr.opcode==Bytecode.INSTR_LOAD_STR;
+	}
+
+	protected static void setBoolean(Instr instr, boolean v) {
+		instr.opcode = v ? Bytecode.INSTR_TRUE : Bytecode.INSTR_FALSE;
+		instr.opnds = new int[0];
+	}
+
+	protected static Interval union(Interval a, Interval b) {
+		if ( a==null ) return b;
+		if ( b==null ) return a;
+		return new Interval(Math.min(a.a, b.a), Math.max(a.b, b.b));
+	}
+}
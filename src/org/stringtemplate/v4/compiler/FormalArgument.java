@@ -72,6 +72,10 @@ public class FormalArgument {
 	public Token defaultValueToken;
 	public Object defaultValue; // x="str", x=true, x=false
 	public CompiledST compiledDefaultValue; // x={...}
+	/** Set by {@link org.stringtemplate.v4.STGroup#specialize}; the argument
+	 *  always has {@link #defaultValue} and can't be set on an instance.
+	 */
+	public boolean fixed;
 
     public FormalArgument(String name) { this.name = name; }
 
@@ -80,6 +84,11 @@ public class FormalArgument {
 		this.defaultValueToken = defaultValueToken;
 	}
 
+	/** True if the argument gets a value when none is given. */
+	public boolean hasDefaultValue() {
+		return defaultValueToken!=null || fixed;
+	}
+
     /*
     public static String getCardinalityName(int cardinality) {
         switch (cardinality) {
@@ -0,0 +1,167 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.stringtemplate.v4.STErrorListener;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupDir;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.misc.STMessage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compile templates ahead of time into a {@link CompiledTemplateCache}
+ * directory, typically as a build step. Put that directory into the jar and
+ * point {@link STGroup#compiledTemplateCache} at it with
+ * {@link CompiledTemplateCache#CompiledTemplateCache(java.net.URL)} so
+ * production nodes don't compile templates at startup:
+ * <pre>
+ *  java org.stringtemplate.v4.compiler.Precompiler -o target/classes/st templates
+ * </pre>
+ * Each argument is a group file ({@code .stg}), a template file
+ * ({@code .st}), or a directory. Directories are loaded the way
+ * {@link STGroupDir} would load them, so template names match at run time.
+ * The exit status is 1 if any template has errors, which fails the build.
+ * Setting {@code templates.dir} runs it as part of the build: the
+ * {@code precompile-templates} target in {@code build.xml} and the profile
+ * of the same name in {@code pom.xml} write to {@code st-precompiled} in
+ * the classes directory, which goes into the jar.
+ */
+public class Precompiler {
+	public File outputDir;
+	public String encoding = "UTF-8";
+	public char delimiterStartChar = '<';
+	public char delimiterStopChar = '>';
+
+	protected int errors = 0;
+
+	protected final STErrorListener listener = new STErrorListener() {
+		@Override
+		public void compileTimeError(STMessage msg) { error(msg); }
+		@Override
+		public void runTimeError(STMessage msg) { error(msg); }
+		@Override
+		public void IOError(STMessage msg) { error(msg); }
+		@Override
+		public void internalError(STMessage msg) { error(msg); }
+	};
+
+	public Precompiler(File outputDir) {
+		this.outputDir = outputDir;
+	}
+
+	public static void main(String[] args) {
+		File outputDir = null;
+		List<String> paths = new ArrayList<String>();
+		String encoding = null;
+		String delimiters = null;
+		for (int i = 0; i < args.length; i++) {
+			if ( args[i].equals("-o") && i+1<args.length ) outputDir = new File(args[++i]);
+			else if ( args[i].equals("-encoding") && i+1<args.length ) encoding = args[++i];
+			else if ( args[i].equals("-delimiters") && i+1<args.length ) delimiters = args[++i];
+			else paths.add(args[i]);
+		}
+		if ( outputDir==null || paths.isEmpty() ||
+			 (delimiters!=null && delimiters.length()!=2) )
+		{
+			System.err.println("usage: Precompiler -o outputDir [-encoding enc] [-delimiters <>] file-or-dir...");
+			System.exit(2);
+		}
+		Precompiler pc = new Precompiler(outputDir);
+		if ( encoding!=null ) pc.encoding = encoding;
+		if ( delimiters!=null ) {
+			pc.delimiterStartChar = delimiters.charAt(0);
+			pc.delimiterStopChar = delimiters.charAt(1);
+		}
+		for (String p : paths) pc.precompile(new File(p));
+		if ( pc.getNumberOfErrors()>0 ) {
+			System.err.println(pc.getNumberOfErrors()+" template error(s)");
+			System.exit(1);
+		}
+	}
+
+	public int getNumberOfErrors() { return errors; }
+
+	public void precompile(File f) {
+		if ( f.isDirectory() ) {
+			STGroupDir group = new STGroupDir(f.getAbsolutePath(), encoding,
+											  delimiterStartChar, delimiterStopChar);
+			setUp(group);
+			precompileDir(group, f, "/");
+		}
+		else if ( f.getName().endsWith(STGroup.GROUP_FILE_EXTENSION) ) {
+			STGroupFile group = new STGroupFile(f.getAbsolutePath(), encoding,
+												delimiterStartChar, delimiterStopChar);
+			setUp(group);
+			group.load();
+		}
+		else if ( f.getName().endsWith(STGroup.TEMPLATE_FILE_EXTENSION) ) {
+			STGroup group = new STGroup(delimiterStartChar, delimiterStopChar);
+			group.encoding = encoding;
+			setUp(group);
+			group.loadAbsoluteTemplateFile(f.getAbsolutePath());
+		}
+		else {
+			System.err.println("not a template file or directory: "+f);
+			errors++;
+		}
+	}
+
+	protected void precompileDir(STGroupDir group, File dir, String prefix) {
+		File[] files = dir.listFiles();
+		if ( files==null ) return;
+		for (File f : files) {
+			String name = f.getName();
+			if ( f.isDirectory() ) {
+				precompileDir(group, f, prefix+name+"/");
+			}
+			else if ( name.endsWith(STGroup.TEMPLATE_FILE_EXTENSION) ) {
+				String base = name.substring(0, name.length()-STGroup.TEMPLATE_FILE_EXTENSION.length());
+				group.lookupTemplate(prefix+base);
+			}
+			else if ( name.endsWith(STGroup.GROUP_FILE_EXTENSION) ) {
+				String base = name.substring(0, name.length()-STGroup.GROUP_FILE_EXTENSION.length());
+				// same prefix STGroupDir.load() gives templates in a group file
+				group.loadGroupFile(prefix+base+"/", group.root+prefix+name);
+			}
+		}
+	}
+
+	protected void setUp(STGroup group) {
+		group.setListener(listener);
+		group.compiledTemplateCache = new CompiledTemplateCache(outputDir);
+	}
+
+	protected void error(STMessage msg) {
+		errors++;
+		System.err.println(msg);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.compiler;
+
+import org.antlr.runtime.Token;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.ErrorReplayBuffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled templates shared in memory by groups that load the same sources,
+ * such as one group per tenant. Entries are keyed like
+ * {@link CompiledTemplateCache} entries, by a hash of everything that affects
+ * compilation. Entries are group-neutral prototypes; each group, including
+ * the one that compiled it, gets a {@link CompiledST#share} copy bound to
+ * it, so the bytecode and string table exist once. An entry goes away once
+ * no group holds a copy, and holding one keeps no other group alive.
+ * <p>
+ * Set {@link STGroup#sharedTemplateCache} on each group to use one. Templates
+ * with compile errors are never shared.</p>
+ */
+public class SharedTemplateCache {
+	protected final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	protected final ReferenceQueue<CompiledST> cleared = new ReferenceQueue<CompiledST>();
+
+	protected static class Entry extends WeakReference<CompiledST> {
+		final String key;
+		Entry(String key, CompiledST code, ReferenceQueue<CompiledST> q) {
+			super(code, q);
+			this.key = key;
+		}
+	}
+
+	/** Same as {@link Compiler#compile(String, String, List, String, Token)},
+	 *  but reuse what another group compiled from identical input.
+	 */
+	public CompiledST compile(STGroup group,
+							  String srcName,
+							  String name,
+							  List<FormalArgument> args,
+							  String template,
+							  Token templateToken,
+							  ErrorManager errMgr)
+	{
+		String key = CompiledTemplateCache.computeKey(group, name, args, template, templateToken);
+		CompiledST prototype = get(key);
+		if ( prototype==null ) {
+			ErrorReplayBuffer errors = new ErrorReplayBuffer();
+			ErrorManager buffered = new ErrorManager(errors);
+			CompiledST code = null;
+			int nerrors;
+			try {
+				if ( group.compiledTemplateCache!=null ) {
+					code = group.compiledTemplateCache.compile(group, srcName, name, args, template, templateToken, buffered);
+				}
+				else {
+					Compiler c = new Compiler(group);
+					c.errMgr = buffered;
+					code = c.compile(srcName, name, args, template, templateToken);
+				}
+			}
+			finally { // syntax errors can blast out of the compiler
+				nerrors = errors.size();
+				errors.replay(errMgr.listener);
+			}
+			if ( code==null || nerrors>0 ) return code;
+			// every group, this one included, gets a copy of a prototype
+			// that holds on to none of them; the caller's args are set on
+			// each copy below and compile default values in that group
+			code.detachFromGroup();
+			if ( args!=null ) code.formalArguments = null;
+			prototype = put(key, code);
+		}
+		CompiledST code = prototype.share(group);
+		if ( args!=null ) { // keep the caller's args; they carry default values
+			code.formalArguments = null;
+			code.defineFormalArgs(args);
+		}
+		return code;
+	}
+
+	protected synchronized CompiledST get(String key) {
+		Entry e = entries.get(key);
+		return e!=null ? e.get() : null;
+	}
+
+	/** Record {@code code} unless another group got there first; return
+	 *  whichever is recorded.
+	 */
+	protected synchronized CompiledST put(String key, CompiledST code) {
+		expunge();
+		Entry e = entries.get(key);
+		CompiledST prev = e!=null ? e.get() : null;
+		if ( prev!=null ) return prev;
+		entries.put(key, new Entry(key, code, cleared));
+		return code;
+	}
+
+	public synchronized int size() {
+		expunge();
+		return entries.size();
+	}
+
+	/** Drop entries whose templates no group uses anymore. */
+	protected void expunge() {
+		Entry e;
+		while ( (e = (Entry)cleared.poll())!=null ) {
+			if ( entries.get(e.key)==e ) entries.remove(e.key);
+		}
+	}
+}
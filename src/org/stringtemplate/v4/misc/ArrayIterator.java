@@ -34,17 +34,49 @@ import java.util.NoSuchElementException;
 
 /** Iterator for an array so I don't have to copy the array to a {@link List}
  *  just to make it implement {@link Iterator}.
+ *
+ *  <p>The element type is determined once, up front, so that primitive
+ *  arrays are read with a plain array access rather than
+ *  {@link Array#get}. {@link #size} and {@link #get(int)} let callers that
+ *  can index walk the array without the iterator protocol, and
+ *  {@link #getLong}/{@link #toString(int)} read elements without boxing.</p>
  */
 public class ArrayIterator implements Iterator<Object> {
+	protected static final int OBJECT = 0;
+	protected static final int INT = 1;
+	protected static final int LONG = 2;
+	protected static final int SHORT = 3;
+	protected static final int BYTE = 4;
+	protected static final int DOUBLE = 5;
+	protected static final int FLOAT = 6;
+	protected static final int CHAR = 7;
+	protected static final int BOOLEAN = 8;
+
 	/** Index into the data array */
 	protected int i = -1;
 	protected Object array = null;
 	/** Arrays are fixed size; precompute. */
 	protected int n;
+	/** Element kind of {@link #array}; one of the constants above. */
+	protected final int type;
 
 	public ArrayIterator(Object array) {
 		this.array = array;
 		n = Array.getLength(array);
+		type = typeOf(array);
+	}
+
+	protected static int typeOf(Object array) {
+		if ( array instanceof Object[] ) return OBJECT;
+		if ( array instanceof int[] ) return INT;
+		if ( array instanceof long[] ) return LONG;
+		if ( array instanceof short[] ) return SHORT;
+		if ( array instanceof byte[] ) return BYTE;
+		if ( array instanceof double[] ) return DOUBLE;
+		if ( array instanceof float[] ) return FLOAT;
+		if ( array instanceof char[] ) return CHAR;
+		if ( array instanceof boolean[] ) return BOOLEAN;
+		throw new IllegalArgumentException("not an array: "+array);
 	}
 
 	@Override
@@ -58,11 +90,79 @@ public class ArrayIterator implements Iterator<Object> {
 		if ( i >= n ) {
 			throw new NoSuchElementException();
 		}
-		return Array.get(array, i);
+		return get(i);
 	}
 
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException();
 	}
+
+	public int size() { return n; }
+
+	/** Element {@code index}, boxed if the array is primitive. */
+	public Object get(int index) {
+		switch ( type ) {
+			case INT :     return ((int[])array)[index];
+			case LONG :    return ((long[])array)[index];
+			case SHORT :   return ((short[])array)[index];
+			case BYTE :    return ((byte[])array)[index];
+			case DOUBLE :  return ((double[])array)[index];
+			case FLOAT :   return ((float[])array)[index];
+			case CHAR :    return ((char[])array)[index];
+			case BOOLEAN : return ((boolean[])array)[index];
+			default :      return ((Object[])array)[index];
+		}
+	}
+
+	/** True if the elements are {@code int}, {@code long}, {@code short} or
+	 *  {@code byte} and so can be read with {@link #getLong}.
+	 */
+	public boolean isIntegral() {
+		return type==INT || type==LONG || type==SHORT || type==BYTE;
+	}
+
+	public long getLong(int index) {
+		switch ( type ) {
+			case INT :   return ((int[])array)[index];
+			case LONG :  return ((long[])array)[index];
+			case SHORT : return ((short[])array)[index];
+			case BYTE :  return ((byte[])array)[index];
+			default :    throw new IllegalStateException("not an integral array");
+		}
+	}
+
+	/** Same text as {@code get(index).toString()} but without boxing
+	 *  primitive elements.
+	 */
+	public String toString(int index) {
+		switch ( type ) {
+			case INT :     return String.valueOf(((int[])array)[index]);
+			case LONG :    return String.valueOf(((long[])array)[index]);
+			case SHORT :   return String.valueOf(((short[])array)[index]);
+			case BYTE :    return String.valueOf(((byte[])array)[index]);
+			case DOUBLE :  return String.valueOf(((double[])array)[index]);
+			case FLOAT :   return String.valueOf(((float[])array)[index]);
+			case CHAR :    return String.valueOf(((char[])array)[index]);
+			case BOOLEAN : return String.valueOf(((boolean[])array)[index]);
+			default :      return String.valueOf(((Object[])array)[index]);
+		}
+	}
+
+	/** The class elements are presented as: the wrapper class for primitive
+	 *  arrays, else the array's component type.
+	 */
+	public Class<?> getElementType() {
+		switch ( type ) {
+			case INT :     return Integer.class;
+			case LONG :    return Long.class;
+			case SHORT :   return Short.class;
+			case BYTE :    return Byte.class;
+			case DOUBLE :  return Double.class;
+			case FLOAT :   return Float.class;
+			case CHAR :    return Character.class;
+			case BOOLEAN : return Boolean.class;
+			default :      return array.getClass().getComponentType();
+		}
+	}
 }
@@ -77,6 +77,14 @@ public class ErrorManager {
 		this.listener = listener;
 	}
 
+	/** True if {@link #listener} drops {@link ErrorType#NO_SUCH_PROPERTY}
+	 *  errors unseen, as the stock listeners do; callers can then skip
+	 *  building the message and its cause.
+	 */
+	public boolean ignoresNoSuchProperty() {
+		return listener==DEFAULT_ERROR_LISTENER || listener.getClass()==ErrorBuffer.class;
+	}
+
 	public void compileTimeError(ErrorType error, Token templateToken, Token t) {
 		CharStream input = t.getInputStream();
 		String srcName = null;
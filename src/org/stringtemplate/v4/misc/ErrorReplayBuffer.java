@@ -0,0 +1,77 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import org.stringtemplate.v4.STErrorListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Hold messages from work done off the loading thread so they can be sent
+ *  to the real listener later, in the order the work was requested.
+ */
+public class ErrorReplayBuffer implements STErrorListener {
+	protected static final int COMPILE = 0, RUNTIME = 1, IO = 2, INTERNAL = 3;
+
+	protected final List<STMessage> messages = new ArrayList<STMessage>();
+	protected final List<Integer> kinds = new ArrayList<Integer>();
+
+	@Override
+	public void compileTimeError(STMessage msg) { add(COMPILE, msg); }
+
+	@Override
+	public void runTimeError(STMessage msg) { add(RUNTIME, msg); }
+
+	@Override
+	public void IOError(STMessage msg) { add(IO, msg); }
+
+	@Override
+	public void internalError(STMessage msg) { add(INTERNAL, msg); }
+
+	protected void add(int kind, STMessage msg) {
+		messages.add(msg);
+		kinds.add(kind);
+	}
+
+	public int size() { return messages.size(); }
+
+	/** Send everything buffered so far to {@code listener} and clear. */
+	public void replay(STErrorListener listener) {
+		for (int i = 0; i < messages.size(); i++) {
+			STMessage msg = messages.get(i);
+			switch ( kinds.get(i) ) {
+				case COMPILE : listener.compileTimeError(msg); break;
+				case RUNTIME : listener.runTimeError(msg); break;
+				case IO : listener.IOError(msg); break;
+				default : listener.internalError(msg); break;
+			}
+		}
+		messages.clear();
+		kinds.clear();
+	}
+}
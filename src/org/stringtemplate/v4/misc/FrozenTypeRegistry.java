@@ -0,0 +1,74 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** A read-only copy of a {@link TypeRegistry} that any number of threads
+ *  can query without locking. Each type resolves through the registry once;
+ *  after that the answer comes from a concurrent map.
+ */
+public class FrozenTypeRegistry<V> extends AbstractMap<Class<?>, V> {
+	private static final Object NONE = new Object();
+
+	private final TypeRegistry<V> registry = new TypeRegistry<V>();
+	private final ConcurrentMap<Class<?>, Object> resolved =
+		new ConcurrentHashMap<Class<?>, Object>();
+
+	/** Copy {@code m}; synchronize on it first if other threads may change it. */
+	public FrozenTypeRegistry(Map<Class<?>, V> m) {
+		for (Map.Entry<Class<?>, V> e : m.entrySet()) {
+			registry.put(e.getKey(), e.getValue());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		if ( !(key instanceof Class) ) return null;
+		Object value = resolved.get(key);
+		if ( value==null ) {
+			synchronized (registry) { // resolving fills the registry's cache
+				value = registry.get(key);
+			}
+			if ( value==null ) value = NONE;
+			resolved.putIfAbsent((Class<?>)key, value);
+		}
+		return value==NONE ? null : (V)value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) { return get(key)!=null; }
+
+	@Override
+	public Set<Map.Entry<Class<?>, V>> entrySet() { return registry.entrySet(); }
+}
@@ -28,7 +28,7 @@
 package org.stringtemplate.v4.misc;
 
 import org.stringtemplate.v4.Interpreter;
-import org.stringtemplate.v4.ModelAdaptor;
+import org.stringtemplate.v4.ProbingModelAdaptor;
 import org.stringtemplate.v4.ST;
 
 import java.lang.reflect.Field;
@@ -39,7 +39,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class ObjectModelAdaptor implements ModelAdaptor {
+public class ObjectModelAdaptor implements ProbingModelAdaptor {
 	protected static final Member INVALID_MEMBER;
 	static {
 		Member invalidMember;
@@ -57,10 +57,48 @@ public class ObjectModelAdaptor implements ModelAdaptor {
 	protected static final Map<Class<?>, Map<String, Member>> membersCache =
 		new HashMap<Class<?>, Map<String, Member>>();
 
+	protected static final Class<?>[] GET_PROPERTY_ARGS = {
+		Interpreter.class, ST.class, Object.class, Object.class, String.class
+	};
+
+	/**
+	 * Set when a subclass customizes {@link #getProperty} or
+	 * {@link #throwNoSuchProperty} but not {@link #tryGetProperty}; probes
+	 * must then go through {@code getProperty} to honor the override.
+	 */
+	protected final boolean probeViaGetProperty = isGetPropertyCustomized(getClass());
+
 	@Override
 	public synchronized Object getProperty(Interpreter interp, ST self, Object o, Object property, String propertyName)
 		throws STNoSuchPropertyException
 	{
+		Object value = lookupProperty(o, property, propertyName);
+		if ( value==NO_SUCH_PROPERTY ) {
+			return throwNoSuchProperty(o.getClass(), propertyName, null);
+		}
+		return value;
+	}
+
+	@Override
+	public synchronized Object tryGetProperty(Interpreter interp, ST self, Object o, Object property, String propertyName)
+		throws STNoSuchPropertyException
+	{
+		if ( probeViaGetProperty ) {
+			try {
+				return getProperty(interp, self, o, property, propertyName);
+			}
+			catch (STNoSuchPropertyException e) {
+				return NO_SUCH_PROPERTY;
+			}
+		}
+		return lookupProperty(o, property, propertyName);
+	}
+
+	/** Return the value of {@code o}'s property, or {@link #NO_SUCH_PROPERTY}
+	 *  if it doesn't have one by that name. Failing to read a property that
+	 *  does exist goes to {@link #throwNoSuchProperty}.
+	 */
+	protected Object lookupProperty(Object o, Object property, String propertyName) {
 		if (o == null) {
 			throw new NullPointerException("o");
 		}
@@ -68,7 +106,7 @@ public class ObjectModelAdaptor implements ModelAdaptor {
 		Class<?> c = o.getClass();
 
 		if ( property==null ) {
-			return throwNoSuchProperty(c, propertyName, null);
+			return NO_SUCH_PROPERTY;
 		}
 
 		Member member = findMember(c, propertyName);
@@ -86,7 +124,31 @@ public class ObjectModelAdaptor implements ModelAdaptor {
 			}
 		}
 
-		return throwNoSuchProperty(c, propertyName, null);
+		return NO_SUCH_PROPERTY;
+	}
+
+	protected static boolean isGetPropertyCustomized(Class<?> c) {
+		if ( c==ObjectModelAdaptor.class ) return false;
+		try {
+			if ( c.getMethod("tryGetProperty", GET_PROPERTY_ARGS).getDeclaringClass()!=ObjectModelAdaptor.class ) {
+				return false;
+			}
+			if ( c.getMethod("getProperty", GET_PROPERTY_ARGS).getDeclaringClass()!=ObjectModelAdaptor.class ) {
+				return true;
+			}
+			for (Class<?> k = c; k!=ObjectModelAdaptor.class; k = k.getSuperclass()) {
+				try {
+					k.getDeclaredMethod("throwNoSuchProperty", Class.class, String.class, Exception.class);
+					return true;
+				} catch (NoSuchMethodException ex) {
+				}
+			}
+			return false;
+		} catch (NoSuchMethodException ex) {
+		} catch (SecurityException ex) {
+		}
+
+		return true;
 	}
 
 	protected static Member findMember(Class<?> clazz, String memberName) {
@@ -0,0 +1,76 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2011 Terence Parr
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.stringtemplate.v4.misc;
+
+import org.stringtemplate.v4.AttributeFormatter;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.STGroup;
+
+import java.util.Locale;
+
+/**
+ * The renderer (and compiled format, if any) that a single write instruction
+ * used for the last value it wrote. Entries are immutable; the interpreter
+ * replaces the entry whenever the type, format, locale, or the group's
+ * renderer registry changes, so a racy read just costs an extra lookup.
+ */
+public final class RenderSite {
+	public final STGroup group;
+	/** Value of the group's renderer registry version when we looked it up. */
+	public final int renderersVersion;
+	public final Class<?> type;
+	public final String formatString;
+	public final Locale locale;
+	/** {@code null} if no renderer was registered for {@link #type}. */
+	public final AttributeRenderer renderer;
+	/** {@code null} unless {@link #renderer} precompiled {@link #formatString}. */
+	public final AttributeFormatter formatter;
+
+	public RenderSite(STGroup group, int renderersVersion, Class<?> type,
+					  String formatString, Locale locale,
+					  AttributeRenderer renderer, AttributeFormatter formatter)
+	{
+		this.group = group;
+		this.renderersVersion = renderersVersion;
+		this.type = type;
+		this.formatString = formatString;
+		this.locale = locale;
+		this.renderer = renderer;
+		this.formatter = formatter;
+	}
+
+	public boolean matches(STGroup group, int renderersVersion, Class<?> type,
+						   String formatString, Locale locale)
+	{
+		return this.type==type && this.group==group &&
+			   this.renderersVersion==renderersVersion &&
+			   (this.locale==locale || (locale!=null && locale.equals(this.locale))) &&
+			   (this.formatString==formatString ||
+				(formatString!=null && formatString.equals(this.formatString)));
+	}
+}
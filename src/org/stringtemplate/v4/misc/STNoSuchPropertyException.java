@@ -30,7 +30,10 @@ package org.stringtemplate.v4.misc;
 
 import org.stringtemplate.v4.compiler.STException;
 
-/** For {@code <a.b>}, object {@code a} does not have a property {@code b}. */
+/** For {@code <a.b>}, object {@code a} does not have a property {@code b}.
+ *  These are routine when templates probe optional properties, so no stack
+ *  trace is recorded; the {@link #getCause cause}, if any, keeps its own.
+ */
 public class STNoSuchPropertyException extends STException {
 	public Object o;
 	public String propertyName;
@@ -45,4 +48,9 @@ public class STNoSuchPropertyException extends STException {
 		if ( o!=null ) return "object "+o.getClass()+" has no "+propertyName+" property";
 		else return "no such property: "+propertyName;
 	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
 }
@@ -105,7 +105,7 @@ public abstract class BaseTest {
     @Before
     public void setUp() {
         STGroup.defaultGroup = new STGroup();
-        Compiler.subtemplateCount = 0;
+        Compiler.subtemplateCount.set(0);
 
         String baseTestDirectory = System.getProperty("java.io.tmpdir");
         String testDirectory = getClass().getSimpleName() + "-" + System.currentTimeMillis();
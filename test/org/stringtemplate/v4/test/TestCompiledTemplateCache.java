@@ -0,0 +1,253 @@
+package org.stringtemplate.v4.test;
+
+import org.junit.Test;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupDir;
+import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.AdHocTemplateCache;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.CompiledTemplateCache;
+import org.stringtemplate.v4.compiler.Precompiler;
+import org.stringtemplate.v4.compiler.SharedTemplateCache;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCompiledTemplateCache extends BaseTest {
+	static final String GROUP =
+		"a(names, x={<z>!}, z=\"zz\") ::= <<\n" +
+		"<names:{n | <i>:<n><if(n)>!<endif>}; separator=\",\">|<x>|<z>|<@r>def<@end>|<@s()>\n" +
+		">>\n" +
+		"b(names) ::= \"<names:{n | [<n:{m | (<m>)}>]}>\"\n" +
+		"@a.s() ::= \"S\"\n";
+
+	protected STGroup loadGroup(String dir, File cacheDir) {
+		STGroup group = new STGroupFile(dir+"/t.stg");
+		group.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		return group;
+	}
+
+	protected String render(STGroup group) {
+		ST a = group.getInstanceOf("a");
+		a.add("names", "x");
+		a.add("names", "y");
+		ST b = group.getInstanceOf("b");
+		b.add("names", "p");
+		b.add("names", "q");
+		return a.render()+" "+b.render();
+	}
+
+	@Test public void testSecondLoadComesFromCache() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "t.stg", GROUP);
+		File cacheDir = new File(dir, "cache");
+
+		STGroup first = loadGroup(dir, cacheDir);
+		String expected = "1:x!,2:y!|zz!|zz|def|S [(p)][(q)]";
+		assertEquals(expected, render(first));
+		assertNotNull(first.lookupTemplate("a").ast);
+		assertEquals(3, cacheDir.list().length); // a, b and region @a.s
+
+		STGroup second = loadGroup(dir, cacheDir);
+		assertEquals(expected, render(second));
+		assertNull(second.lookupTemplate("a").ast); // never parsed
+		assertEquals(first.lookupTemplate("a").codeSize, second.lookupTemplate("a").codeSize);
+	}
+
+	@Test public void testCachedSubtemplatesDoNotClash() throws Exception {
+		String dir = getRandomDir();
+		File cacheDir = new File(dir, "cache");
+		STGroup group = new STGroup();
+		group.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		group.defineTemplate("a", "names", "<names:{n | a<n>}>");
+		STGroup other = new STGroup();
+		other.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		other.defineTemplate("a", "names", "<names:{n | a<n>}>"); // from cache
+		other.defineTemplate("b", "names", "<names:{n | b<n>}>"); // compiled
+		ST a = other.getInstanceOf("a");
+		a.add("names", "1");
+		ST b = other.getInstanceOf("b");
+		b.add("names", "2");
+		assertEquals("a1 b2", a.render()+" "+b.render());
+	}
+
+	@Test public void testTemplatesWithErrorsAreNotCached() throws Exception {
+		String dir = getRandomDir();
+		File cacheDir = new File(dir, "cache");
+		ErrorBuffer errors = new ErrorBuffer();
+		STGroup group = new STGroup();
+		group.setListener(errors);
+		group.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		group.defineTemplate("a", "<x,y:{z|<z>}>"); // anonymous template arg mismatch
+		assertEquals(1, errors.errors.size());
+		File[] files = cacheDir.listFiles();
+		assertEquals(0, files==null ? 0 : files.length);
+	}
+
+	@Test public void testDelimitersArePartOfKey() throws Exception {
+		String dir = getRandomDir();
+		File cacheDir = new File(dir, "cache");
+		STGroup angle = new STGroup();
+		angle.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		CompiledST a = angle.defineTemplate("a", "x", "$x$<x>");
+		STGroup dollar = new STGroup('$', '$');
+		dollar.compiledTemplateCache = new CompiledTemplateCache(cacheDir);
+		CompiledST b = dollar.defineTemplate("a", "x", "$x$<x>");
+		ST st = dollar.getInstanceOf("a");
+		st.add("x", "X");
+		assertEquals("X<x>", st.render());
+		assertNotNull(a.ast);
+		assertNotNull(b.ast);
+	}
+
+	@Test public void testPrecompiledDirectory() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "templates/a.st", "a(x) ::= <<[<x:{y | <y>}>]>>\n");
+		writeFile(dir, "templates/sub/g.stg", "b() ::= \"<c()>\"\nc() ::= \"C\"\n");
+		File out = new File(dir, "precompiled");
+		Precompiler pc = new Precompiler(out);
+		pc.precompile(new File(dir, "templates"));
+		assertEquals(0, pc.getNumberOfErrors());
+		assertEquals(3, out.list().length); // a (with its subtemplate), b, c
+
+		STGroup group = new STGroupDir(dir+"/templates");
+		group.compiledTemplateCache = new CompiledTemplateCache(out.toURI().toURL());
+		ST a = group.getInstanceOf("a");
+		a.add("x", "1");
+		assertEquals("[1]", a.render());
+		assertEquals("C", group.getInstanceOf("sub/g/b").render());
+		assertNull(group.lookupTemplate("a").ast);
+		assertNull(group.lookupTemplate("sub/g/b").ast);
+		assertEquals(3, out.list().length); // read-only; nothing added
+	}
+
+	@Test public void testPrecompilerCountsErrors() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "t.stg", "a() ::= \"<x,y:{z|<z>}>\"\nb() ::= \"<\"\n");
+		Precompiler pc = new Precompiler(new File(dir, "precompiled"));
+		pc.precompile(new File(dir, "t.stg"));
+		assertEquals(2, pc.getNumberOfErrors());
+	}
+
+	@Test public void testGroupsShareCompiledTemplates() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "t.stg", GROUP);
+		SharedTemplateCache shared = new SharedTemplateCache();
+		STGroup first = new STGroupFile(dir+"/t.stg");
+		first.sharedTemplateCache = shared;
+		STGroup second = new STGroupFile(dir+"/t.stg");
+		second.sharedTemplateCache = shared;
+		second.registerRenderer(Integer.class, new AttributeRenderer() {
+			@Override
+			public String toString(Object o, String formatString, Locale locale) {
+				return "#"+o;
+			}
+		});
+		assertEquals("1:x!,2:y!|zz!|zz|def|S [(p)][(q)]", render(first));
+		assertEquals("#1:x!,#2:y!|zz!|zz|def|S [(p)][(q)]", render(second));
+		CompiledST a1 = first.lookupTemplate("a");
+		CompiledST a2 = second.lookupTemplate("a");
+		assertTrue(a1!=a2);
+		assertTrue(a1.instrs==a2.instrs);
+		assertTrue(a1.nativeGroup==first);
+		assertTrue(a2.nativeGroup==second);
+		assertEquals(3, shared.size()); // a with its subtemplates, b and region @a.s
+	}
+
+	@Test public void testSharedTemplatesDoNotPinGroups() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "t.stg", GROUP);
+		SharedTemplateCache shared = new SharedTemplateCache();
+		STGroup first = new STGroupFile(dir+"/t.stg");
+		first.sharedTemplateCache = shared;
+		STGroup second = new STGroupFile(dir+"/t.stg");
+		second.sharedTemplateCache = shared;
+		String expected = render(first);
+		assertEquals(expected, render(second));
+		WeakReference<STGroup> ref = new WeakReference<STGroup>(first);
+		first = null;
+		for (int i = 0; i < 50 && ref.get()!=null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+		assertEquals(expected, render(second));
+		assertEquals(3, shared.size());
+	}
+
+	@Test public void testTemplatesWithErrorsAreNotShared() throws Exception {
+		SharedTemplateCache shared = new SharedTemplateCache();
+		for (int i = 0; i < 2; i++) {
+			ErrorBuffer errors = new ErrorBuffer();
+			STGroup group = new STGroup();
+			group.setListener(errors);
+			group.sharedTemplateCache = shared;
+			group.defineTemplate("a", "<x,y:{z|<z>}>"); // anonymous template arg mismatch
+			assertEquals(1, errors.errors.size());
+		}
+		assertEquals(0, shared.size());
+	}
+
+	@Test public void testAdHocTemplatesCompileOnce() throws Exception {
+		AdHocTemplateCache saved = ST.adHocTemplateCache;
+		ST.adHocTemplateCache = new AdHocTemplateCache(10);
+		try {
+			String template = "<name>: <items:{it|[<it>]}; separator=\",\">";
+			ST first = new ST(template);
+			first.add("name", "a").add("items", new String[] {"x", "y"});
+			ST second = new ST(template);
+			second.add("items", "z"); // args get defined in a different order
+			second.add("name", "b");
+			assertTrue(first.impl!=second.impl);
+			assertTrue(first.impl.instrs==second.impl.instrs);
+			assertEquals("a: [x],[y]", first.render());
+			assertEquals("b: [z]", second.render());
+			assertEquals("1 and 2", ST.format("<%1> and <%2>", 1, 2));
+			assertEquals("1 and 2", ST.format("<%1> and <%2>", 1, 2));
+			assertEquals(2, ST.adHocTemplateCache.size());
+
+			ErrorBuffer errors = new ErrorBuffer();
+			STGroup.defaultGroup.setListener(errors);
+			new ST("<x,y:{z|<z>}>");
+			new ST("<x,y:{z|<z>}>");
+			assertEquals(2, errors.errors.size());
+			assertEquals(2, ST.adHocTemplateCache.size());
+		}
+		finally {
+			ST.adHocTemplateCache = saved;
+		}
+	}
+
+	@Test public void testAdHocTemplatesDoNotPinGroups() throws Exception {
+		AdHocTemplateCache saved = ST.adHocTemplateCache;
+		ST.adHocTemplateCache = new AdHocTemplateCache(10);
+		try {
+			ST st = new ST("$x:{y|[$y$]}$", '$', '$');
+			st.add("x", 1);
+			assertEquals("[1]", st.render());
+			WeakReference<STGroup> ref = new WeakReference<STGroup>(st.groupThatCreatedThisInstance);
+			st = null;
+			for (int i = 0; i < 50 && ref.get()!=null; i++) {
+				System.gc();
+				Thread.sleep(10);
+			}
+			assertNull(ref.get());
+			assertEquals(1, ST.adHocTemplateCache.size());
+			st = new ST("$x:{y|[$y$]}$", '$', '$');
+			st.add("x", 2);
+			assertEquals("[2]", st.render());
+		}
+		finally {
+			ST.adHocTemplateCache = saved;
+		}
+	}
+}
@@ -60,7 +60,9 @@ import org.stringtemplate.v4.compiler.*;
 import org.stringtemplate.v4.compiler.Compiler;
 import org.stringtemplate.v4.misc.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -80,6 +82,16 @@ public class TestCompiler extends BaseTest {
         assertEquals(stringsExpected, stringsResult);
     }
 
+	@Test public void testWriteLocal() throws Exception {
+		List<FormalArgument> args = new ArrayList<FormalArgument>();
+		args.add(new FormalArgument("name"));
+		CompiledST code = new Compiler().compile(null, "t", args, "hi <name><name.x>", null);
+		String asmExpected =
+			"write_str 0, write_local 0, load_local 0, load_prop 1, write";
+		String asmResult = code.instrs();
+		assertEquals(asmExpected, asmResult);
+	}
+
 	@Test public void testInclude() throws Exception {
 		String template = "hi <foo()>";
 		CompiledST code = new Compiler().compile(template);
@@ -552,4 +564,69 @@ public class TestCompiler extends BaseTest {
         String stringsResult = Arrays.toString(code.strings);
         assertEquals(stringsExpected, stringsResult);
     }
+
+	@Test public void testOperandsWiderThan64K() throws Exception {
+		StringBuilder template = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 70000; i++) {
+			template.append('s').append(i).append("<x>");
+			expected.append('s').append(i).append('.');
+		}
+		template.append("<if(x)>end<endif>");
+		expected.append("end");
+		STGroup group = new STGroup();
+		group.defineTemplate("t", "x", template.toString());
+		ST st = group.getInstanceOf("t");
+		st.add("x", ".");
+		assertEquals(4, st.impl.operandSize);
+		assertEquals(expected.toString(), st.render());
+	}
+
+	@Test public void testCompactOperands() throws Exception {
+		String template = "<if(x)>hi <x><elseif(y)><y:{z|<z>!}><else>none<endif>";
+		CompiledST code = new Compiler().compile(null, "t", null, template, null);
+		assertEquals(Bytecode.OPND_SIZE_IN_BYTES, code.operandSize);
+		String asm = code.instrs();
+		int size = code.codeSize;
+		code.setOperandSize(code.getSmallestOperandSize(1));
+		assertEquals(1, code.operandSize);
+		assertEquals(size-12, code.codeSize); // 12 operands, one byte smaller each
+		code.setOperandSize(Bytecode.OPND_SIZE_IN_BYTES);
+		assertEquals(asm, code.instrs());
+
+		STGroup group = new STGroup();
+		group.compactBytecode = true;
+		group.defineTemplate("t", "x,y", template);
+		ST st = group.getInstanceOf("t");
+		assertEquals(1, st.impl.operandSize);
+		assertEquals("none", st.render());
+		st.add("y", Arrays.asList(1, 2));
+		assertEquals("1!2!", st.render());
+		st.add("x", "parrt");
+		assertEquals("hi parrt", st.render());
+	}
+
+	@Test public void testFoldConstants() throws Exception {
+		CompiledST code = new Compiler().compile(null, "t", null, "a<if(true)>b<else>c<endif>d", null);
+		ConstantFolder.fold(code);
+		assertEquals("write_str 0", code.instrs());
+		assertEquals("[abd]", Arrays.toString(code.strings));
+
+		code = new Compiler().compile(null, "t", null, "<if(!true)>x<elseif(y)><y><else>z<endif>!", null);
+		ConstantFolder.fold(code);
+		assertEquals("load_attr 0, brf 13, load_attr 0, write, br 16, write_str 1, write_str 2", code.instrs());
+
+		code = new Compiler().compile(null, "t", null, "<if(true&&\"s\")>x<endif><(\"lit\")>", null);
+		ConstantFolder.fold(code);
+		assertEquals("write_str 0", code.instrs());
+		assertEquals("[xlit]", Arrays.toString(code.strings));
+
+		STGroup group = new STGroup();
+		group.foldConstants = true;
+		group.defineTemplate("t", "y", "a"+newline+"<if(false)>"+newline+"b"+newline+"<endif>"+newline+"c<if(!y)>!<endif>");
+		ST st = group.getInstanceOf("t");
+		assertEquals("a"+newline+"c!", st.render());
+		st.add("y", true);
+		assertEquals("a"+newline+"c", st.render());
+	}
 }
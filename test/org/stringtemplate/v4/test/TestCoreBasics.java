@@ -40,6 +40,7 @@ import org.stringtemplate.v4.misc.STRuntimeMessage;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -953,6 +954,34 @@ public class TestCoreBasics extends BaseTest {
 		assertEquals(expected, result);
 	}
 
+	@Test public void testPrimitiveArrays() throws Exception {
+		ST st = new ST("<a; separator=\",\">|<b; separator=\",\">|<c>|<d; separator=\" \">");
+		st.add("a", new int[] {1, -2, Integer.MAX_VALUE});
+		st.add("b", new double[] {1.5, -0.0, 1e20});
+		st.add("c", new char[] {'h', 'i'});
+		st.add("d", new boolean[] {true, false});
+		assertEquals("1,-2,2147483647|1.5,-0.0,1.0E20|hi|true false", st.render());
+	}
+
+	@Test public void testArrayOfPrimitiveArrays() throws Exception {
+		ST st = new ST("<rows:{r | <r; separator=\",\">}; separator=\"\n\">");
+		st.add("rows", new double[][] {{1, 2.5}, {3, 4}});
+		assertEquals("1.0,2.5"+newline+"3.0,4.0", st.render());
+	}
+
+	@Test public void testRandomAccessListWithNulls() throws Exception {
+		ST st = new ST("<names; null=\"-\", separator=\",\">|<names; separator=\",\">");
+		st.add("names", Arrays.asList("a", null, "b"));
+		assertEquals("a,-,b|a,b", st.render());
+	}
+
+	@Test public void testMapAndZipOverIndexedValues() throws Exception {
+		ST st = new ST("<a:{x | [<x>]}; separator=\",\">|<a,b:{x,y | <x><y>}; separator=\",\">|<[a,b]; separator=\",\">");
+		st.add("a", new int[] {1, 2, 3});
+		st.add("b", Arrays.asList("x", null));
+		assertEquals("[1],[2],[3]|1x,2,3|1,2,3,x", st.render());
+	}
+
 	/** (...) forces early eval to string. early eval {@code <(x)>} using new
 	 *  STWriter derived from type of current STWriter. e.g., AutoIndentWriter.
 	 */
@@ -1064,4 +1093,59 @@ public class TestCoreBasics extends BaseTest {
 		st2.add("arg1", "value");
 		assertEquals("simple template", st2.render());
 	}
+
+	@Test public void testIntegralNumbers() throws Exception {
+		ST st = new ST("<a> <b> <c> <d> <e>");
+		st.add("a", 0);
+		st.add("b", -42);
+		st.add("c", Long.MIN_VALUE);
+		st.add("d", (short)7);
+		st.add("e", (byte)-8);
+		assertEquals("0 -42 -9223372036854775808 7 -8", st.render());
+	}
+
+	@Test public void testIntegralNumbersAreIndented() throws Exception {
+		ST st = new ST("<\\n>  <x>");
+		st.add("x", 12);
+		st.add("x", 34);
+		assertEquals(newline+"  1234", st.render());
+	}
+
+	@Test public void testIterationNumbersBeyondBoxCache() throws Exception {
+		ST st = new ST("<names:{n | <i0>/<i>}; separator=\",\">");
+		List<Integer> names = new ArrayList<Integer>();
+		for (int i = 0; i < 200; i++) names.add(i);
+		st.add("names", names);
+		String result = st.render();
+		assertEquals("199/200", result.substring(result.lastIndexOf(',')+1));
+	}
+
+	@Test public void testNamedArgsFollowCallee() throws Exception {
+		String templates =
+			"a(x) ::= \"<b(y=x, z={!})>\"\n" +
+			"b(y,z) ::= \"<y><z>\"\n" +
+			"c(x) ::= \"<b(w=x)>\"\n";
+		STGroup group = new STGroupString(templates);
+		STGroup sub = new STGroup();
+		sub.defineTemplate("b", "z,y", "<z>:<y>");
+		sub.importTemplates(group);
+		for (int i = 0; i < 2; i++) { // once to link the call, again to use it
+			ST a = group.getInstanceOf("a");
+			a.add("x", "x");
+			assertEquals("x!", a.render());
+			a = sub.getInstanceOf("a");
+			a.add("x", "x");
+			assertEquals("!:x", a.render());
+		}
+
+		ErrorBuffer errors = new ErrorBuffer();
+		group.setListener(errors);
+		for (int i = 0; i < 2; i++) {
+			ST c = group.getInstanceOf("c");
+			c.add("x", "x");
+			c.render();
+		}
+		String expected = "context [/c] 1:1 attribute w isn't defined"+newline;
+		assertEquals(expected+expected, errors.toString());
+	}
 }
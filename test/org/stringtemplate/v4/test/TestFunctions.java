@@ -29,6 +29,7 @@ package org.stringtemplate.v4.test;
 
 import org.junit.*;
 
+import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
@@ -40,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class TestFunctions extends BaseTest {
     @Test public void testFirst() throws Exception {
@@ -794,4 +796,51 @@ public class TestFunctions extends BaseTest {
         assertEquals(expecting, e.render());
     }
 
+    @Test public void testListFunctionsOnPrimitiveArray() throws Exception {
+        ST e = new ST(
+                "<first(x)> <last(x)> <length(x)> [<rest(x); separator=\",\">] "+
+                "[<trunc(x); separator=\",\">] [<strip(x); separator=\",\">]"
+            );
+        e.add("x", new long[] { 1, 2, 3 });
+        String expecting = "1 3 3 [2,3] [1,2] [1,2,3]";
+        assertEquals(expecting, e.render());
+    }
+
+    @Test public void testLastOfEmptyList() throws Exception {
+        ST e = new ST("<last(names)>");
+        e.add("names", new ArrayList<String>());
+        assertEquals("", e.render());
+    }
+
+    @Test public void testListFunctionsReturnViewsOfLargeLists() throws Exception {
+        Interpreter interp = new Interpreter(new STGroup(), false);
+        List<Integer> data = new ArrayList<Integer>();
+        for (int i = 0; i < 1000000; i++) data.add(i);
+        List<?> rest = (List<?>)interp.rest(null, data);
+        List<?> trunc = (List<?>)interp.trunc(null, data);
+        List<?> reversed = (List<?>)interp.reverse(null, data);
+        assertSame(data, interp.strip(null, data));
+        assertEquals(999999, interp.last(null, data));
+        data.set(1, -1);
+        data.set(999998, -2);
+        assertEquals(-1, rest.get(0));
+        assertEquals(-2, trunc.get(999998));
+        assertEquals(-2, reversed.get(1));
+        assertEquals(1000000, reversed.size());
+    }
+
+    @Test public void testStripListThatRejectsNullQueries() throws Exception {
+        List<String> names = new ArrayList<String>(Arrays.asList("Ter", "Tom")) {
+            @Override
+            public int indexOf(Object o) {
+                if ( o==null ) throw new NullPointerException();
+                return super.indexOf(o);
+            }
+            @Override
+            public boolean contains(Object o) { return indexOf(o)>=0; }
+        };
+        ST e = new ST("<strip(names); separator=\", \">");
+        e.add("names", names);
+        assertEquals("Ter, Tom", e.render());
+    }
 }
@@ -32,13 +32,28 @@ import org.junit.Test;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STErrorListener;
 import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupArchive;
 import org.stringtemplate.v4.STGroupDir;
 import org.stringtemplate.v4.STGroupFile;
 import org.stringtemplate.v4.STGroupString;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.Compiler;
+import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -618,6 +633,173 @@ public class TestGroups extends BaseTest {
 		assertEquals(expected, result);
 	}
 
+	@Test public void testGroupDirListsFilesUntilUnload() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a() ::= <<foo>>\n");
+		writeFile(dir, "sub/b.st", "b() ::= <<bar>>\n");
+		STGroup group = new STGroupDir(dir);
+		assertEquals("foo", group.getInstanceOf("a").render());
+		assertEquals("bar", group.getInstanceOf("sub/b").render());
+		writeFile(dir, "c.st", "c() ::= <<baz>>\n");
+		assertEquals(null, group.getInstanceOf("c")); // not in the listing yet
+		group.unload();
+		assertEquals("baz", group.getInstanceOf("c").render());
+	}
+
+	@Test public void testGroupArchive() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "t/a.st", "a(x) ::= \"a: <b()> <x>\"\n");
+		writeFile(dir, "t/b.st", "b() ::= <<b>>\n");
+		writeFile(dir, "t/sub/c.st", "c() ::= <<c>>\n");
+		writeFile(dir, "t/g.stg", "d() ::= \"d\"\ne() ::= \"e: <d()>\"\n");
+		jar("t.jar", new String[] {"t"}, dir);
+		STGroup group = new STGroupArchive(dir+"/t.jar", "t", "UTF-8", '<', '>');
+		ST st = group.getInstanceOf("a");
+		st.add("x", "x");
+		assertEquals("a: b x", st.render());
+		assertEquals("c", group.getInstanceOf("sub/c").render());
+		assertEquals("e: d", group.getInstanceOf("g/e").render());
+		assertEquals(null, group.getInstanceOf("nope"));
+		assertEquals(null, group.getInstanceOf("g/nope"));
+	}
+
+	@Test public void testReloadChangedFilesInGroupDir() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a() ::= \"a: <b()>\"\n");
+		writeFile(dir, "b.st", "b() ::= <<b1>>\n");
+		writeFile(dir, "g.stg", "c() ::= \"c1\"\nd() ::= \"d1\"\n");
+		STGroup group = new STGroupDir(dir);
+		group.hotReload = true;
+		ST a = group.getInstanceOf("a");
+		assertEquals("a: b1", a.render());
+		assertEquals("c1", group.getInstanceOf("g/c").render());
+		assertEquals(0, group.reloadChangedFiles());
+
+		touch(dir, "b.st", "b() ::= <<b2>>\n");
+		touch(dir, "g.stg", "c() ::= \"c2\"\n");
+		writeFile(dir, "e.st", "e() ::= <<e>>\n");
+		CompiledST aBefore = group.lookupTemplate("a");
+		assertEquals(2, group.reloadChangedFiles());
+		assertTrue(aBefore==group.lookupTemplate("a")); // unchanged file kept
+		assertEquals("a: b2", group.getInstanceOf("a").render());
+		assertEquals("c2", group.getInstanceOf("g/c").render());
+		assertEquals(null, group.getInstanceOf("g/d"));
+		assertEquals("e", group.getInstanceOf("e").render());
+
+		new File(dir, "b.st").delete();
+		assertEquals(1, group.reloadChangedFiles());
+		assertEquals(null, group.getInstanceOf("b"));
+	}
+
+	@Test public void testEvictLeastRecentlyUsedFiles() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a() ::= <<a>>\n");
+		writeFile(dir, "b.st", "b() ::= \"b: <c()>\"\n");
+		writeFile(dir, "c.st", "c() ::= <<c>>\n");
+		writeFile(dir, "d.st", "d() ::= <<d>>\n");
+		STGroupDir group = new STGroupDir(dir);
+		group.maxLoadedTemplates = 3;
+		assertEquals("a", group.getInstanceOf("a").render());
+		assertEquals("b: c", group.getInstanceOf("b").render());
+		assertEquals(0, group.getCacheEvictions());
+		assertEquals("a", group.getInstanceOf("a").render()); // b, c now older
+		assertEquals("d", group.getInstanceOf("d").render());
+		assertEquals(2, group.getCacheEvictions());
+
+		long misses = group.getCacheMisses();
+		assertEquals("a", group.getInstanceOf("a").render());
+		assertEquals(misses, group.getCacheMisses());
+		assertEquals("b: c", group.getInstanceOf("b").render());
+		assertTrue(group.getCacheMisses() > misses);
+		assertTrue(group.getCacheHits() > 0);
+		assertEquals(null, group.getInstanceOf("nope"));
+	}
+
+	@Test public void testFreezeLoadsEverything() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a() ::= \"<b()>, <g/c()>, <lib()>, <m.k>\"\n");
+		writeFile(dir+"/sub", "b.st", "b() ::= <<b>>\n");
+		writeFile(dir, "b.st", "b() ::= <<top b>>\n");
+		writeFile(dir, "g.stg", "c() ::= \"c\"\n");
+		writeFile(dir+"/g", "hidden.st", "hidden() ::= <<hidden>>\n");
+		STGroup lib = new STGroupString("m ::= [\"k\":\"v\"]\nlib() ::= \"lib\"\n");
+		STGroupDir group = new STGroupDir(dir);
+		group.importTemplates(lib);
+		assertEquals("c", group.getInstanceOf("g/c").render()); // group file already loaded
+		boolean unfrozenImport = false;
+		try {
+			group.freeze();
+		}
+		catch (IllegalStateException ise) {
+			unfrozenImport = true;
+		}
+		assertTrue(unfrozenImport);
+		assertTrue(!group.isFrozen() && !lib.isFrozen());
+		lib.freeze();
+		assertTrue(group.freeze()==group);
+		assertTrue(group.isFrozen());
+
+		Set<String> expected = new HashSet<String>();
+		Collections.addAll(expected, "/a", "/b", "/sub/b", "/g/c");
+		assertEquals(expected, group.getTemplateNames());
+		assertEquals("top b, c, lib, v", group.getInstanceOf("a").render());
+		assertEquals("b", group.getInstanceOf("sub/b").render());
+		assertEquals(null, group.getInstanceOf("g/hidden"));
+		boolean rejected = false;
+		try {
+			group.defineTemplate("x", "x");
+		}
+		catch (IllegalStateException ise) {
+			rejected = true;
+		}
+		assertTrue(rejected);
+	}
+
+	@Test public void testReloadChangedGroupFile() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "g.stg", "m ::= [\"k\":\"v1\"]\na() ::= \"<m.k>: <b()>\"\nb() ::= \"b1\"\n");
+		STGroup group = new STGroupFile(dir+"/g.stg");
+		group.hotReload = true;
+		assertEquals("v1: b1", group.getInstanceOf("a").render());
+
+		touch(dir, "g.stg", "m ::= [\"k\":\"v2\"]\na() ::= \"<m.k>: <b()>\"\nb() ::= \"b2\"\n");
+		assertEquals(1, group.reloadChangedFiles());
+		assertEquals("v2: b2", group.getInstanceOf("a").render());
+		assertEquals(0, group.reloadChangedFiles());
+	}
+
+	@Test public void testWatcherReloadsChangedFiles() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a() ::= <<a1>>\n");
+		STGroup group = new STGroupDir(dir);
+		group.startWatching(10);
+		try {
+			assertEquals("a1", group.getInstanceOf("a").render());
+			touch(dir, "a.st", "a() ::= <<a2>>\n");
+			long deadline = System.currentTimeMillis()+10000;
+			while ( !group.getInstanceOf("a").render().equals("a2") &&
+					System.currentTimeMillis()<deadline )
+			{
+				Thread.sleep(10);
+			}
+			assertEquals("a2", group.getInstanceOf("a").render());
+		}
+		finally {
+			group.stopWatching();
+		}
+		touch(dir, "a.st", "a() ::= <<a3>>\n");
+		Thread.sleep(100);
+		assertEquals("a2", group.getInstanceOf("a").render());
+	}
+
+	/** Rewrite a file and move its timestamp on past file system granularity. */
+	protected static void touch(String dir, String fileName, String content) {
+		File f = new File(dir, fileName);
+		long lastModified = f.lastModified();
+		writeFile(dir, fileName, content);
+		f.setLastModified(lastModified+2000);
+	}
+
 	@Test public void testUnloadingGroupFile() throws Exception {
 		String dir = getRandomDir();
 		String a =
@@ -766,4 +948,272 @@ public class TestGroups extends BaseTest {
 		assertEquals(expected, result);
 	}
 
+	@Test public void testParallelGroupFileLoad() throws Exception {
+		String groupFile =
+			"a(x) ::= <<[<x:{y|<b(y)>}; separator=\", \">]>>\n"+
+			"b(y, z={<y>!}) ::= \"<z>\"\n"+
+			"c() ::= \"<@r()>\"\n"+
+			"@c.r() ::= \"over\"\n"+
+			"d ::= c\n"+
+			"e(xs) ::= \"<a(xs)>\"\n";
+		writeFile(tmpdir, "g.stg", groupFile);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			STGroup group = new STGroupFile(tmpdir+"/g.stg");
+			group.compileExecutor = pool;
+			group.load();
+			ST st = group.getInstanceOf("e");
+			st.add("xs", new int[] {1, 2});
+			assertEquals("[1!, 2!]", st.render());
+			assertEquals("over", group.getInstanceOf("d").render());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test public void testParallelGroupFileLoadReportsErrorsInOrder() throws Exception {
+		String groupFile =
+			"a() ::= \"<x:{y|<y>}\"\n"+
+			"b() ::= \"ok\"\n"+
+			"b() ::= \"again\"\n"+
+			"c() ::= \"<!\"\n";
+		writeFile(tmpdir, "g.stg", groupFile);
+		ErrorBuffer sequential = new ErrorBuffer();
+		STGroup group = new STGroupFile(tmpdir+"/g.stg");
+		group.setListener(sequential);
+		group.load();
+
+		ErrorBuffer parallel = new ErrorBuffer();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			group = new STGroupFile(tmpdir+"/g.stg");
+			group.setListener(parallel);
+			group.compileExecutor = pool;
+			group.load();
+		}
+		finally {
+			pool.shutdown();
+		}
+		assertTrue(sequential.errors.size()>=3);
+		assertEquals(sequential.toString(), parallel.toString());
+		assertEquals("ok", group.getInstanceOf("b").render());
+	}
+
+	@Test public void testParallelGroupDirLoad() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a(x) ::= <<[<x:{y|<sub/b(y)>}>]>>");
+		writeFile(dir+"/sub", "b.st", "b(y) ::= \"<c()><y>\"");
+		writeFile(dir+"/sub", "c.st", "c() ::= <<:>>");
+		writeFile(dir, "g.stg", "t() ::= \"<u()>\"\nu() ::= \"u\"\n");
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			STGroupDir group = new STGroupDir(dir);
+			group.compileExecutor = pool;
+			group.load();
+			assertTrue(group.isDefined("/sub/b"));
+			assertTrue(group.isDefined("/g/u"));
+			ST st = group.getInstanceOf("a");
+			st.add("x", new int[] {1, 2});
+			assertEquals("[:1:2]", st.render());
+			assertEquals("u", group.getInstanceOf("g/t").render());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test public void testLazyGroupFileCompilesOnFirstUse() throws Exception {
+		String groupFile =
+			"a(x) ::= <<[<x:{y|<b(y)>}; separator=\", \">]>>\n"+
+			"b(y, z={<y>!}) ::= \"<z>\"\n"+
+			"bad() ::= \"<!\"\n"+
+			"c() ::= \"<@r()>\"\n"+
+			"@c.r() ::= \"over\"\n"+
+			"d ::= c\n";
+		writeFile(tmpdir, "g.stg", groupFile);
+		ErrorBuffer errors = new ErrorBuffer();
+		STGroup group = new STGroupFile(tmpdir+"/g.stg");
+		group.setListener(errors);
+		group.compileLazily = true;
+		ST st = group.getInstanceOf("a");
+		st.add("x", new int[] {1, 2});
+		assertEquals("[1!, 2!]", st.render());
+		assertEquals("over", group.getInstanceOf("d").render());
+		assertEquals("", errors.toString()); // bad() never compiled
+
+		STGroup eager = new STGroupFile(tmpdir+"/g.stg");
+		eager.setListener(new ErrorBuffer());
+		assertEquals(eager.getTemplateNames().size(), group.getTemplateNames().size());
+		assertEquals(1, errors.errors.size());
+	}
+
+	@Test public void testLazyGroupFileReportsRedefinition() throws Exception {
+		String groupFile =
+			"a() ::= \"first\"\n"+
+			"a() ::= \"second\"\n";
+		writeFile(tmpdir, "g.stg", groupFile);
+		ErrorBuffer errors = new ErrorBuffer();
+		STGroup group = new STGroupFile(tmpdir+"/g.stg");
+		group.setListener(errors);
+		group.compileLazily = true;
+		assertEquals("first", group.getInstanceOf("a").render());
+		assertEquals("g.stg 2:0: redefinition of template a"+newline, errors.toString());
+	}
+
+	@Test public void testConcurrentMissesLoadTemplateOnce() throws Exception {
+		String dir = getRandomDir();
+		writeFile(dir, "a.st", "a(x) ::= <<foo>>");
+		final AtomicInteger loads = new AtomicInteger();
+		final STGroup group = new STGroupDir(dir) {
+			@Override
+			protected CompiledST load(String name) {
+				loads.incrementAndGet();
+				try {
+					Thread.sleep(50);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+				return super.load(name);
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(pool.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return group.getInstanceOf("a").render();
+				}
+			}));
+		}
+		for (Future<String> f : results) assertEquals("foo", f.get());
+		pool.shutdown();
+		assertEquals(1, loads.get());
+	}
+
+	@Test public void testShowKeepsDefinitionOrder() throws Exception {
+		STGroup group = new STGroup();
+		group.defineTemplate("c", "x", "<x>");
+		group.defineTemplate("a", "1");
+		group.defineTemplate("b", "2");
+		String expected =
+			"c(x) ::= <<"+newline+"<x>"+newline+">>"+newline+
+			"a() ::= <<"+newline+"1"+newline+">>"+newline+
+			"b() ::= <<"+newline+"2"+newline+">>"+newline;
+		assertEquals(expected, group.show());
+	}
+
+	@Test public void testConcurrentSubtemplateNamesAreUnique() throws Exception {
+		final Set<String> names = Collections.synchronizedSet(new HashSet<String>());
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for (int i = 0; i < 4; i++) {
+			done.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) names.add(Compiler.getNewSubtemplateName());
+				}
+			}));
+		}
+		for (Future<?> f : done) f.get();
+		pool.shutdown();
+		assertEquals(4000, names.size());
+	}
+
+	static class DeferringGroup extends STGroup {
+		void deferWhile(Runnable r) {
+			deferTemplateDefinitions();
+			try { r.run(); }
+			finally { endDeferredTemplateDefinitions(); }
+		}
+	}
+
+	@Test public void testDeferredDefinitionsStayOnLoadingThread() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		final DeferringGroup group = new DeferringGroup();
+		group.compileExecutor = pool;
+		final List<FormalArgument> noArgs = new ArrayList<FormalArgument>();
+		try {
+			group.deferWhile(new Runnable() {
+				@Override
+				public void run() {
+					group.defineTemplateOrRegion("/a", null, null, "A", null, noArgs); // batched
+					try {
+						pool.submit(new Runnable() {
+							@Override
+							public void run() {
+								group.defineTemplateOrRegion("/b", null, null, "B", null, noArgs);
+							}
+						}).get();
+					}
+					catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					assertTrue(group.isDefined("b")); // other threads aren't batched
+				}
+			});
+		}
+		finally {
+			pool.shutdown();
+		}
+		assertEquals("A", group.getInstanceOf("a").render());
+		assertEquals("B", group.getInstanceOf("b").render());
+	}
+
+	@Test public void testSpecializeOnConstantArguments() throws Exception {
+		String dir = getRandomDir();
+		String groupFile =
+			"page(site, beta, user) ::= <<\n" +
+			"<site>: <if(beta)>[beta] <endif>hello <user><if(!beta)>!<endif>\n" +
+			"<user:{u|<u>@<site>}>\n" +
+			">>\n";
+		writeFile(dir, "group.stg", groupFile);
+		STGroup group = new STGroupFile(dir+"/group.stg");
+		Map<String,Object> constants = new HashMap<String,Object>();
+		constants.put("site", "acme");
+		constants.put("beta", false);
+		CompiledST spec = group.specialize("page", constants);
+		assertTrue(!spec.instrs().contains("brf"));
+		assertTrue(group.lookupTemplate("/page").instrs().contains("brf"));
+
+		ST st = group.createStringTemplate(spec);
+		st.add("user", "bob");
+		String expected = "acme: hello bob!"+newline+"bob@acme";
+		assertEquals(expected, st.render());
+		st = group.getInstanceOf("page");
+		st.add("site", "acme");
+		st.add("beta", false);
+		st.add("user", "bob");
+		assertEquals(expected, st.render());
+
+		boolean caught = false;
+		try {
+			group.specialize("page", Collections.<String,Object>singletonMap("nope", 1));
+		}
+		catch (IllegalArgumentException iae) {
+			caught = true;
+		}
+		assertTrue(caught);
+	}
+
+	@Test public void testFixedArgumentsCannotBeSet() throws Exception {
+		STGroup group = new STGroup();
+		group.defineTemplate("t", "site,user", "<site>:<user><user:{u|<u>@<site>}>");
+		CompiledST spec = group.specialize("t", Collections.<String,Object>singletonMap("site", null));
+		ST st = group.createStringTemplate(spec);
+		st.add("user", "bob");
+		assertEquals(":bobbob@", st.render());
+
+		boolean caught = false;
+		try {
+			st.add("site", "acme");
+		}
+		catch (IllegalArgumentException iae) {
+			caught = true;
+		}
+		assertTrue(caught);
+		assertEquals(":bobbob@", st.render());
+	}
 }
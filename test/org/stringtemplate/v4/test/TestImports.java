@@ -36,6 +36,9 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class TestImports extends BaseTest {
 	@Test public void testImportDir() throws Exception {
@@ -682,4 +685,116 @@ public class TestImports extends BaseTest {
 		String result = st.render();
 		assertEquals(expected, result);
 	}
+
+	@Test public void testImportResolutionSeesLaterDefinitions() throws Exception {
+		STGroup base = new STGroup();
+		STGroup mid = new STGroup();
+		mid.importTemplates(base);
+		STGroup group = new STGroup();
+		group.importTemplates(mid);
+		group.defineTemplate("a", "<m.k>/<b()>");
+		Map<String,Object> m = new HashMap<String,Object>();
+		m.put("k", "v1");
+		base.defineDictionary("m", m);
+		base.defineTemplate("b", "base b");
+		assertEquals("v1/base b", group.getInstanceOf("a").render());
+		assertEquals("v1/base b", group.getInstanceOf("a").render()); // from import table
+
+		Map<String,Object> m2 = new HashMap<String,Object>();
+		m2.put("k", "v2");
+		mid.defineDictionary("m", m2); // shadows base's m
+		mid.defineTemplate("b", "mid b");
+		assertEquals("v2/mid b", group.getInstanceOf("a").render());
+	}
+
+	@Test public void testOverlayOverridesBaseTemplates() throws Exception {
+		String dir = getRandomDir();
+		String baseFile =
+			"m ::= [\"k\":\"base\"]\n" +
+			"page() ::= \"[<header()>|<body()>|<m.k>]\"\n" +
+			"header() ::= \"base header\"\n" +
+			"body() ::= \"base body\"\n";
+		writeFile(dir, "base.stg", baseFile);
+		STGroup base = new STGroupFile(dir+"/base.stg");
+		STGroup tenant = new STGroupOverlay(base);
+		tenant.defineTemplate("header", "tenant header, not <super.header()>");
+		STGroup other = new STGroupOverlay(base);
+
+		assertEquals("[tenant header, not base header|base body|base]",
+					 tenant.getInstanceOf("page").render());
+		assertEquals("[base header|base body|base]", other.getInstanceOf("page").render());
+		assertEquals("[base header|base body|base]", base.getInstanceOf("page").render());
+		assertTrue(tenant.lookupTemplate("page")==base.lookupTemplate("page")); // shared
+		assertTrue(other.lookupTemplate("header")==base.lookupTemplate("header"));
+	}
+
+	@Test public void testOverlayDictionariesAndRenderers() throws Exception {
+		STGroup base = new STGroup();
+		Map<String,Object> m = new HashMap<String,Object>();
+		m.put("k", "base");
+		base.defineDictionary("m", m);
+		base.registerRenderer(Integer.class, new AttributeRenderer() {
+			@Override
+			public String toString(Object o, String formatString, Locale locale) {
+				return "#"+o;
+			}
+		});
+		STGroup tenant = new STGroupOverlay(base);
+		tenant.defineTemplate("t", "x", "<m.k> <x>");
+		ST t = tenant.getInstanceOf("t");
+		t.add("x", 1);
+		assertEquals("base #1", t.render());
+
+		Map<String,Object> m2 = new HashMap<String,Object>();
+		m2.put("k", "tenant");
+		tenant.defineDictionary("m", m2);
+		t = tenant.getInstanceOf("t");
+		t.add("x", 1);
+		assertEquals("tenant #1", t.render());
+	}
+
+	@Test public void testOverlaySeesRendererRegisteredLaterOnBase() throws Exception {
+		STGroup base = new STGroup();
+		STGroup tenant = new STGroupOverlay(base);
+		tenant.defineTemplate("t", "x", "<x>");
+		ST t = tenant.getInstanceOf("t");
+		t.add("x", 1);
+		assertEquals("1", t.render());
+
+		base.registerRenderer(Integer.class, new AttributeRenderer() {
+			@Override
+			public String toString(Object o, String formatString, Locale locale) {
+				return "#"+o;
+			}
+		});
+		t = tenant.getInstanceOf("t");
+		t.add("x", 1);
+		assertEquals("#1", t.render());
+	}
+
+	static class VersionedGroup extends STGroup {
+		int importsVersion() { return importsVersion.get(); }
+	}
+
+	@Test public void testImportTablesFollowOnlyReachableGroups() throws Exception {
+		VersionedGroup a = new VersionedGroup();
+		STGroup b = new STGroup();
+		STGroup c = new STGroup();
+		a.importTemplates(b);
+		b.importTemplates(c);
+		c.defineTemplate("t", "from c");
+		assertEquals("from c", a.getInstanceOf("t").render()); // hit is cached
+		int version = a.importsVersion();
+
+		STGroup unrelated = new STGroup();
+		unrelated.defineTemplate("t", "other");
+		unrelated.unload();
+		assertEquals(version, a.importsVersion());
+		VersionedGroup lone = new VersionedGroup();
+		lone.unload(); // nothing imported
+		assertEquals(0, lone.importsVersion());
+
+		b.defineTemplate("t", "from b"); // hides c's t
+		assertEquals("from b", a.getInstanceOf("t").render());
+	}
 }
@@ -32,6 +32,7 @@ import org.stringtemplate.v4.*;
 import org.stringtemplate.v4.misc.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestInterptimeErrors extends BaseTest {
     public static class UserHiddenName {
@@ -171,6 +172,31 @@ public class TestInterptimeErrors extends BaseTest {
         assertEquals(expected, result);
     }
 
+    @Test public void testErrorLocationWithoutDebugInfo() throws Exception {
+        ErrorBuffer errors = new ErrorBuffer();
+
+        String templates =
+            "t(x) ::= \"<u({9})><x:{y|<foo()>}>\"" + Misc.newline+
+            "u(x,y) ::= \"<x>\"" + Misc.newline;
+
+        writeFile(tmpdir, "t.stg", templates);
+        STGroup group = new STGroupFile(tmpdir+"/"+"t.stg");
+		group.setListener(errors);
+		group.discardDebugInfo = true;
+        ST st = group.getInstanceOf("t");
+        st.add("x", 1);
+        st.render();
+        assertNull(st.impl.ast);
+        assertNull(st.impl.tokens);
+        assertNull(st.impl.sourceMap);
+
+        String expected =
+            "context [/t] 1:1 passed 1 arg(s) to template /u with 2 declared arg(s)"+newline+
+            "context [/t /_sub2] 1:15 no such template: /foo"+newline;
+		String result = errors.toString();
+        assertEquals(expected, result);
+    }
+
     @Test public void testUndefinedAttr() throws Exception {
         ErrorBuffer errors = new ErrorBuffer();
 
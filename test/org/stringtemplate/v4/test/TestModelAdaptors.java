@@ -3,10 +3,15 @@ package org.stringtemplate.v4.test;
 import org.junit.*;
 
 import org.stringtemplate.v4.*;
+import org.stringtemplate.v4.misc.ErrorBuffer;
+import org.stringtemplate.v4.misc.ErrorManager;
+import org.stringtemplate.v4.misc.ObjectModelAdaptor;
 import org.stringtemplate.v4.misc.STNoSuchPropertyException;
 import org.stringtemplate.v4.misc.STRuntimeMessage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestModelAdaptors extends BaseTest {
 	static class UserAdaptor implements ModelAdaptor {
@@ -126,4 +131,58 @@ public class TestModelAdaptors extends BaseTest {
 		result = st.render();
 		assertEquals(expecting, result);
 	}
+
+	@Test public void testProbingAdaptorMissReportsError() throws Exception {
+		ErrorBufferAllErrors errors = new ErrorBufferAllErrors();
+		STGroup group = new STGroup();
+		group.setListener(errors);
+		group.registerModelAdaptor(User.class, new ProbingModelAdaptor() {
+			@Override
+			public Object getProperty(Interpreter interp, ST self, Object o, Object property, String propertyName) {
+				throw new STNoSuchPropertyException(null, o, "User."+propertyName);
+			}
+
+			@Override
+			public Object tryGetProperty(Interpreter interp, ST self, Object o, Object property, String propertyName) {
+				if ( propertyName.equals("id") ) return ((User)o).id;
+				return NO_SUCH_PROPERTY;
+			}
+		});
+		ST st = new ST(group, "<u.id><if(u.qqq)>yes<else>no<endif>");
+		st.add("u", new User(100, "parrt"));
+		assertEquals("100no", st.render());
+		STRuntimeMessage msg = (STRuntimeMessage)errors.errors.get(0);
+		STNoSuchPropertyException e = (STNoSuchPropertyException)msg.cause;
+		assertEquals(User.class.getName()+".qqq", e.propertyName);
+	}
+
+	@Test public void testOnlyListenersThatSeeMissesGetThem() throws Exception {
+		assertTrue(new ErrorManager().ignoresNoSuchProperty());
+		assertTrue(new ErrorManager(new ErrorBuffer()).ignoresNoSuchProperty());
+		assertFalse(new ErrorManager(new ErrorBufferAllErrors()).ignoresNoSuchProperty());
+	}
+
+	@Test public void testObjectAdaptorSubclassOverridesStillApply() throws Exception {
+		STGroup group = new STGroup();
+		group.registerModelAdaptor(User.class, new ObjectModelAdaptor() {
+			@Override
+			public synchronized Object getProperty(Interpreter interp, ST self, Object o, Object property, String propertyName) {
+				if ( propertyName.equals("nick") ) return "p";
+				return super.getProperty(interp, self, o, property, propertyName);
+			}
+
+			@Override
+			protected Object throwNoSuchProperty(Class<?> clazz, String propertyName, Exception cause) {
+				return "?";
+			}
+		});
+		ST st = new ST(group, "<u.name>:<u.nick>:<u.qqq>");
+		st.add("u", new User(100, "parrt"));
+		assertEquals("parrt:p:?", st.render());
+	}
+
+	@Test public void testNoSuchPropertyExceptionHasNoStackTrace() throws Exception {
+		STNoSuchPropertyException e = new STNoSuchPropertyException(null, null, "User.qqq");
+		assertEquals(0, e.getStackTrace().length);
+	}
 }
@@ -361,4 +361,68 @@ public class TestRenderers extends BaseTest {
 
 		assertEquals("12 de Junho de 2012", st.render(new Locale("pt")));
 	}
+
+	public static class CountingRenderer implements CompilableAttributeRenderer {
+		public int compiles = 0;
+		@Override
+		public String toString(Object o, String formatString, Locale locale) {
+			return formatString+":"+o;
+		}
+		@Override
+		public AttributeFormatter compileFormat(final String formatString, Locale locale) {
+			compiles++;
+			return new AttributeFormatter() {
+				@Override
+				public String format(Object o) { return formatString+":"+o; }
+			};
+		}
+	}
+
+	@Test public void testFormatCompiledOncePerWriteSite() {
+		String template = "<names; format=\"x\", separator=\",\">";
+		STGroup group = new STGroup();
+		CountingRenderer r = new CountingRenderer();
+		group.registerRenderer(String.class, r);
+		ST st = new ST(group, template);
+		st.add("names", "ter");
+		st.add("names", "tom");
+		assertEquals("x:ter,x:tom", st.render());
+		assertEquals("x:ter,x:tom", st.render());
+		assertEquals(1, r.compiles);
+	}
+
+	@Test public void testRegisterRendererInvalidatesWriteSiteCache() {
+		STGroup group = new STGroup();
+		group.registerRenderer(String.class, new CountingRenderer());
+		ST st = new ST(group, "<name; format=\"cap\">");
+		st.add("name", "ter");
+		assertEquals("cap:ter", st.render());
+		group.registerRenderer(String.class, new StringRenderer());
+		assertEquals("Ter", st.render());
+	}
+
+	@Test public void testRendererForIterationNumber() {
+		STGroup group = new STGroup();
+		group.registerRenderer(Integer.class, new AttributeRenderer() {
+			@Override
+			public String toString(Object o, String formatString, Locale locale) {
+				return "#"+o;
+			}
+		});
+		ST st = new ST(group, "<names:{n | <i>}>");
+		st.add("names", "a");
+		st.add("names", "b");
+		assertEquals("#1#2", st.render());
+	}
+
+	@Test public void testRendererForPrimitiveArrayElements() {
+		STGroup group = new STGroup();
+		group.registerRenderer(Number.class, new NumberRenderer());
+		ST st = new ST(group, "<x; format=\"%.1f\", separator=\" \">");
+		st.add("x", new double[] {1, 2.25});
+		assertEquals("1.0 2.3", st.render());
+		st = new ST(group, "<x; format=\"%03d\", separator=\" \">");
+		st.add("x", new long[] {1, 20});
+		assertEquals("001 020", st.render());
+	}
 }
@@ -28,13 +28,18 @@
 package org.stringtemplate.v4.test;
 
 import org.junit.*;
+import org.stringtemplate.v4.AttributeRenderer;
+import org.stringtemplate.v4.Interpreter;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
+import org.stringtemplate.v4.compiler.CompiledST;
 import org.stringtemplate.v4.misc.ErrorBuffer;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -266,4 +271,73 @@ public class TestSubtemplates extends BaseTest {
 		assertEquals(expected, result);
 	}
 
+	@Test public void testSmallCalleesRunInPlace() throws Exception {
+		String templates =
+			"t(x,n) ::= <<\n" +
+			"<x>:\n" +
+			"  <row(x,n)>\n" +
+			"  <pair(x)>\n" +
+			"<{done}>\n" +
+			">>\n" +
+			"row(a,b) ::= \"<a>=<b>\"\n" +
+			"pair(a) ::= <<\n" +
+			"[<a>\n" +
+			"   <a>]\n" +
+			">>\n";
+		writeFile(tmpdir, "t.stg", templates);
+		STGroup group = new STGroupFile(tmpdir+"/t.stg");
+		group.registerRenderer(Integer.class, new AttributeRenderer() {
+			@Override
+			public String toString(Object o, String formatString, Locale locale) {
+				return "#"+o;
+			}
+		});
+		STGroup sub = new STGroup();
+		sub.defineTemplate("row", "a,b", "<b>/<a>");
+		sub.importTemplates(group);
+
+		String expected =
+			"x:"+newline+
+			"  x=#3"+newline+
+			"  [x"+newline+
+			"     x]"+newline+
+			"done";
+		String expectedInSub =
+			"x:"+newline+
+			"  3/x"+newline+ // sub defines row, and has no renderers
+			"  [x"+newline+
+			"     x]"+newline+
+			"done";
+		for (int size : new int[] {0, group.maxInlinedCodeSize}) {
+			group.maxInlinedCodeSize = size;
+			sub.maxInlinedCodeSize = size;
+			ST st = group.getInstanceOf("t");
+			st.add("x", "x");
+			st.add("n", 3);
+			assertEquals(expected, st.render());
+			st = sub.getInstanceOf("t");
+			st.add("x", "x");
+			st.add("n", 3);
+			assertEquals(expectedInSub, st.render());
+		}
+	}
+
+	@Test public void testOverriddenInstanceCreationSeesEveryCall() throws Exception {
+		final List<String> created = new ArrayList<String>();
+		STGroup group = new STGroup() {
+			@Override
+			public ST createStringTemplate(CompiledST impl) {
+				created.add(impl.name);
+				return super.createStringTemplate(impl);
+			}
+		};
+		group.defineTemplate("row", "x", "[<x>]");
+		group.defineTemplate("cell", "y,z", "<y><z>");
+		group.defineTemplate("t", "x", "<row(x)><cell(z=x, y=x)>");
+		ST st = group.getInstanceOf("t");
+		st.add("x", "x");
+		assertEquals("[x]xx", st.render());
+		assertEquals("[/t, /row, /cell]", created.toString());
+	}
+
 }